@@ -60,6 +60,7 @@ dependencies {
     implementation("com.fasterxml.jackson.core:jackson-core:$jacksonVersion")
     implementation("com.fasterxml.jackson.core:jackson-databind:$jacksonVersion")
     implementation("com.fasterxml.jackson.datatype:jackson-datatype-jsr310:$jacksonVersion")
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile:$jacksonVersion")
 
     implementation("com.nimbusds:nimbus-jose-jwt:$nimbusVersion")
 	implementation("org.bouncycastle:bcprov-jdk18on:$bouncyCastleVersion")
@@ -1,31 +1,542 @@
 package com.defi.common.util.log.appender;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.log.codec.EventCodec;
+import com.defi.common.util.log.codec.EventShards;
 import com.defi.common.util.redis.Redisson;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RStream;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RStreamAsync;
 import org.redisson.api.RedissonClient;
 import org.redisson.api.stream.StreamAddArgs;
 
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+/**
+ * Ghi event lên Redis stream bất đồng bộ: append chỉ đưa message vào ring buffer có giới hạn,
+ * một thread nền lấy theo lô (tối đa batchSize) và gửi các XADD trong một pipeline (RBatch),
+ * nên luồng gọi EventLogger.log không phải chờ round trip tới Redis.
+ * <p>
+ * Khi buffer đầy, queuePolicy quyết định: SPILL (mặc định) ghi event vào SpillJournal trên đĩa, DROP bỏ event ngay,
+ * BLOCK chờ tối đa blockTimeoutMs rồi bỏ event. BLOCK chỉ nên bật khi chấp nhận mọi luồng gọi EventLogger.log
+ * bị chặn chừng đó mỗi event lúc Redis không phản hồi. Với SPILL, lô gửi lỗi được thử lại
+ * cho đến khi Redis phục hồi thay vì bị bỏ; trong lúc đó event mới đi vào journal, và khi journal còn event
+ * chưa phát lại thì event mới cũng vào journal, nên thứ tự event trên stream được giữ nguyên.
+ * Flusher phát lại journal sau khi buffer đã rỗng.
+ * Độ sâu hàng đợi và các bộ đếm được công bố qua JMX (EventRedisAppenderMXBean).
+ * Khi dừng, event còn trong buffer được ghi nốt trong tối đa shutdownTimeoutMs
+ * (với SPILL, phần không gửi được nằm lại trong journal cho lần khởi động sau).
+ * encoding (json hoặc smile, xem EventCodec) chọn định dạng payload trên stream; việc chuyển định dạng
+ * chạy trên thread flusher, journal luôn lưu chuỗi JSON gốc. Với compression=deflate, mỗi lô gửi được nén
+ * thành một entry duy nhất (mức nén compressionLevel), giảm bộ nhớ Redis mà stream chiếm;
+ * listener phải hỗ trợ entry nén trước khi bật.
+ * Với shardCount > 1 event được chia lên các stream streamName:0 .. streamName:N-1 (xem EventShards):
+ * shardBy=SUBJECT_ID định tuyến theo hash của subjectId (mọi event của một subject vào cùng một shard, event
+ * không có subjectId đi theo vòng), ROUND_ROBIN gửi mỗi lô sang shard kế tiếp. Một lô gửi tới nhiều shard vẫn là một RBatch,
+ * trên Redis Cluster Redisson chia lô theo node và gửi song song.
+ * Kế thừa UnsynchronizedAppenderBase để các luồng log không tranh nhau lock của appender.
+ */
 @Slf4j
-@Setter
-public class EventRedisAppender extends AppenderBase<ILoggingEvent> {
+public class EventRedisAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements EventRedisAppenderMXBean {
+
+    public enum QueuePolicy {
+        BLOCK, DROP, SPILL
+    }
+
+    public enum ShardBy {
+        SUBJECT_ID, ROUND_ROBIN
+    }
 
+    @Setter
     private String streamName;
+    @Setter
     private String fieldName;
+    @Setter
+    private int queueSize = 8192;
+    @Setter
+    private int batchSize = 256;
+    @Setter
+    private long flushIntervalMs = 5;
+    @Setter
+    private String queuePolicy = QueuePolicy.SPILL.name();
+    @Setter
+    private long blockTimeoutMs = 1000;
+    @Setter
+    private int maxRetries = 3;
+    @Setter
+    private long retryBackoffMs = 100;
+    @Setter
+    private long shutdownTimeoutMs = 5000;
+    @Setter
+    private String encoding = EventCodec.Format.JSON.headerValue();
+    @Setter
+    private String compression = EventCodec.Compression.NONE.headerValue();
+    @Setter
+    private int compressionLevel = Deflater.BEST_SPEED;
+    @Setter
+    private int shardCount = 1;
+    @Setter
+    private String shardBy = ShardBy.SUBJECT_ID.name();
+    @Setter
+    private String spillDirectory = "logs/event-spill";
+    @Setter
+    private int spillSegmentBytes = 64 * 1024 * 1024;
+    @Setter
+    private int spillMaxSegments = 16;
+
+    private MpmcRingBuffer<String> queue;
+    private QueuePolicy policy;
+    private EventCodec.Format format;
+    private byte[] formatHeader;
+    private EventCodec.Compression compressionMode;
+    private byte[] compressionHeader;
+    private ShardBy sharding;
+    private String[] shardNames;
+    private int nextShard;
+    private SpillJournal journal;
+    private Thread flusher;
+    private volatile boolean flusherIdle;
+    private volatile boolean stopping;
+    private ObjectName objectName;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+
+    @Override
+    public void start() {
+        if (streamName == null || fieldName == null) {
+            addError("streamName and fieldName are required for appender " + getName());
+            return;
+        }
+        try {
+            policy = QueuePolicy.valueOf(queuePolicy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            addError("Unknown queuePolicy " + queuePolicy + ", using SPILL");
+            policy = QueuePolicy.SPILL;
+        }
+        try {
+            format = EventCodec.Format.parse(encoding);
+        } catch (IllegalArgumentException e) {
+            addError("Unknown encoding " + encoding + ", using json");
+            format = EventCodec.Format.JSON;
+        }
+        formatHeader = format.headerValue().getBytes(StandardCharsets.UTF_8);
+        try {
+            compressionMode = EventCodec.Compression.parse(compression);
+        } catch (IllegalArgumentException e) {
+            addError("Unknown compression " + compression + ", using none");
+            compressionMode = EventCodec.Compression.NONE;
+        }
+        compressionHeader = compressionMode.headerValue().getBytes(StandardCharsets.UTF_8);
+        try {
+            sharding = ShardBy.valueOf(shardBy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            addError("Unknown shardBy " + shardBy + ", using SUBJECT_ID");
+            sharding = ShardBy.SUBJECT_ID;
+        }
+        shardCount = Math.max(1, shardCount);
+        shardNames = new String[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shardNames[i] = shardCount == 1 ? streamName : EventShards.streamName(streamName, i);
+        }
+        if (policy == QueuePolicy.SPILL) {
+            try {
+                journal = new SpillJournal(Paths.get(spillDirectory), spillSegmentBytes, spillMaxSegments);
+                if (journal.hasPending()) {
+                    addInfo(journal.pendingCount() + " spilled events will be replayed to " + streamName);
+                }
+            } catch (IOException e) {
+                // Không chuyển sang BLOCK: luồng ghi log không được bị chặn khi Redis lỗi
+                addError("Could not open spill journal in " + spillDirectory + ", using DROP", e);
+                policy = QueuePolicy.DROP;
+            }
+        }
+        queue = new MpmcRingBuffer<>(queueSize);
+        stopping = false;
+        flusher = new Thread(this::runFlusher, "event-redis-appender-" + getName());
+        flusher.setDaemon(true);
+        flusher.start();
+        registerMBean();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        stopping = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            addWarn(queue.size() + " events still queued when appender " + getName() + " stopped");
+        }
+        if (flusher.isAlive()) {
+            // Flusher vẫn đang gửi hoặc đổ lô vào journal: để nó tự đóng journal khi thoát
+            addWarn("Flusher of appender " + getName() + " still running after " + shutdownTimeoutMs
+                    + "ms, spill journal will be closed when it exits");
+        } else {
+            closeJournal();
+        }
+        unregisterMBean();
+    }
 
     @Override
     protected void append(ILoggingEvent eventObject) {
+        String message = eventObject.getMessage();
+        // Journal còn event chưa phát lại: event mới cũng vào journal để giữ thứ tự
+        boolean accepted = journal != null && journal.hasPending()
+                ? spill(message)
+                : queue.offer(message) || offerWhenFull(message);
+        if (accepted) {
+            enqueued.increment();
+            if (flusherIdle) {
+                LockSupport.unpark(flusher);
+            }
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private boolean offerWhenFull(String message) {
+        if (policy == QueuePolicy.DROP) {
+            return false;
+        }
+        if (policy == QueuePolicy.SPILL) {
+            return spill(message);
+        }
+        blocked.increment();
+        LockSupport.unpark(flusher);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        while (System.nanoTime() < deadline && isStarted()) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            if (queue.offer(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean spill(String message) {
+        try {
+            if (journal.append(message)) {
+                spilled.increment();
+                return true;
+            }
+        } catch (IOException e) {
+            ErrorLogger.create(e).log();
+        }
+        return false;
+    }
+
+    private void runFlusher() {
+        List<String> batch = new ArrayList<>(batchSize);
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        while (true) {
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                if (stopping) {
+                    closeJournal();
+                    return;
+                }
+                if (journal != null && journal.hasPending()) {
+                    replay();
+                    continue;
+                }
+                flusherIdle = true;
+                // Kiểm tra lại sau khi bật cờ để không bỏ lỡ event vừa được đưa vào
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(idleNanos);
+                }
+                flusherIdle = false;
+                continue;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Gọi bởi flusher khi thoát, hoặc bởi stop() khi flusher đã dừng; đóng hai lần không gây lỗi.
+     */
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            addWarn("Could not close spill journal", e);
+        }
+    }
+
+    /**
+     * Gửi một lô từ buffer, thử lại cả lô khi lỗi. Không có journal thì bỏ lô sau maxRetries lần;
+     * có journal thì thử lại đến khi thành công, hoặc đổ lô vào journal khi appender đang dừng.
+     */
+    private void write(List<String> messages) {
+        for (int attempt = 0; ; attempt++) {
+            Exception error = send(messages);
+            if (error == null) {
+                written.add(messages.size());
+                return;
+            }
+            if (journal == null && (attempt >= maxRetries || (stopping && attempt > 0))) {
+                failed.add(messages.size());
+                ErrorLogger.create(error).log();
+                return;
+            }
+            if (journal != null && stopping) {
+                messages.forEach(message -> {
+                    if (!spill(message)) {
+                        failed.increment();
+                    }
+                });
+                return;
+            }
+            if (attempt == maxRetries) {
+                ErrorLogger.create(error).log();
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Phát lại một lô từ journal theo thứ tự ghi; vị trí đọc chỉ tiến khi lô đã vào stream.
+     */
+    private void replay() {
+        List<String> messages = journal.peek(batchSize);
+        if (messages.isEmpty()) {
+            backoff(0);
+            return;
+        }
+        for (int attempt = 0; !stopping; attempt++) {
+            Exception error = send(messages);
+            if (error == null) {
+                try {
+                    journal.commit();
+                } catch (IOException e) {
+                    ErrorLogger.create(e).log();
+                }
+                replayed.add(messages.size());
+                return;
+            }
+            if (attempt == maxRetries) {
+                ErrorLogger.create(error).log();
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Gửi các XADD trong một round trip (pipeline RBatch).
+     * @return lỗi nếu lô không được ghi, null nếu thành công
+     */
+    private Exception send(List<String> messages) {
         try {
             RedissonClient client = Redisson.getInstance().getClient();
-            RStream<String, String> stream = client.getStream(streamName);
-            String message = eventObject.getMessage();
-            stream.add(StreamAddArgs.entry(fieldName, message));
+            RBatch batch = client.createBatch(BatchOptions.defaults());
+            if (shardCount == 1) {
+                add(batch.getStream(streamName, EventCodec.STREAM_CODEC), messages);
+            } else {
+                List<List<String>> shards = route(messages);
+                for (int i = 0; i < shardCount; i++) {
+                    if (!shards.get(i).isEmpty()) {
+                        add(batch.getStream(shardNames[i], EventCodec.STREAM_CODEC), shards.get(i));
+                    }
+                }
+            }
+            batch.execute();
+            batches.increment();
+            return null;
         } catch (Exception e) {
-            ErrorLogger.create(e).log();
+            return e;
+        }
+    }
+
+    /**
+     * Chia lô theo shard, giữ thứ tự tương đối của các message trong từng shard.
+     * Chỉ gọi từ thread flusher.
+     */
+    private List<List<String>> route(List<String> messages) {
+        List<List<String>> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
         }
+        int roundRobin = nextShard;
+        nextShard = (nextShard + 1) % shardCount;
+        for (String message : messages) {
+            String subjectId = sharding == ShardBy.SUBJECT_ID ? EventShards.subjectId(message) : null;
+            int shard = subjectId == null ? roundRobin : EventShards.shardOf(subjectId, shardCount);
+            shards.get(shard).add(message);
+        }
+        return shards;
+    }
+
+    private void add(RStreamAsync<String, byte[]> stream, List<String> messages) throws IOException {
+        if (compressionMode == EventCodec.Compression.NONE || messages.size() < 2) {
+            for (String message : messages) {
+                stream.addAsync(entry(message));
+            }
+        } else {
+            addCompressed(stream, messages);
+        }
+    }
+
+    /**
+     * Entry JSON không kèm header để tương thích với listener cũ; message không chuyển được sang
+     * định dạng nhị phân (không phải JSON hợp lệ) được ghi nguyên văn như JSON.
+     */
+    private StreamAddArgs<String, byte[]> entry(String message) {
+        if (format != EventCodec.Format.JSON) {
+            try {
+                return StreamAddArgs.entries(fieldName, EventCodec.encode(message, format),
+                        EventCodec.HEADER_FIELD, formatHeader);
+            } catch (IOException e) {
+                addWarn("Could not encode event as " + format.headerValue() + ", writing it as JSON", e);
+            }
+        }
+        return StreamAddArgs.entry(fieldName, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Nén các message liên tiếp thành một entry; message không encode được được ghi riêng dạng JSON
+     * ở đúng vị trí của nó để giữ thứ tự.
+     */
+    private void addCompressed(RStreamAsync<String, byte[]> stream, List<String> messages) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            try {
+                payloads.add(EventCodec.encode(message, format));
+            } catch (IOException e) {
+                addWarn("Could not encode event as " + format.headerValue() + ", writing it as JSON", e);
+                addBatchEntry(stream, payloads);
+                payloads.clear();
+                stream.addAsync(StreamAddArgs.entry(fieldName, message.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        addBatchEntry(stream, payloads);
+    }
+
+    private void addBatchEntry(RStreamAsync<String, byte[]> stream, List<byte[]> payloads) throws IOException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        stream.addAsync(StreamAddArgs.entries(fieldName, EventCodec.compress(payloads, compressionLevel),
+                EventCodec.HEADER_FIELD, formatHeader, EventCodec.COMPRESSION_FIELD, compressionHeader));
+    }
+
+    private void backoff(int attempt) {
+        long delayMs = Math.min(retryBackoffMs * (1L << Math.min(attempt, 10)), TimeUnit.SECONDS.toMillis(10));
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delayMs));
+    }
+
+    private void registerMBean() {
+        try {
+            objectName = new ObjectName("com.defi.common.util.log:type=EventRedisAppender,name="
+                    + ObjectName.quote(getName() == null ? streamName : getName()));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            }
+        } catch (Exception e) {
+            addWarn("Could not register JMX metrics for appender " + getName(), e);
+            objectName = null;
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            if (objectName != null && ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            addWarn("Could not unregister JMX metrics for appender " + getName(), e);
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queue == null ? 0 : queue.capacity();
+    }
+
+    @Override
+    public String getQueuePolicy() {
+        return policy == null ? queuePolicy : policy.name();
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    @Override
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+
+    @Override
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    @Override
+    public long getJournalPendingCount() {
+        return journal == null ? 0 : journal.pendingCount();
     }
-}
\ No newline at end of file
+}
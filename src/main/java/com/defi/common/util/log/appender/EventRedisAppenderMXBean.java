@@ -0,0 +1,20 @@
+package com.defi.common.util.log.appender;
+
+/**
+ * Metric JMX của EventRedisAppender, đăng ký dưới tên
+ * {@code com.defi.common.util.log:type=EventRedisAppender,name=<tên appender>}.
+ */
+public interface EventRedisAppenderMXBean {
+    int getQueueDepth();
+    int getQueueCapacity();
+    String getQueuePolicy();
+    long getEnqueuedCount();
+    long getDroppedCount();
+    long getBlockedCount();
+    long getWrittenCount();
+    long getFailedCount();
+    long getBatchCount();
+    long getSpilledCount();
+    long getReplayedCount();
+    long getJournalPendingCount();
+}
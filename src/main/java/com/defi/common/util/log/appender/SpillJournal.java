@@ -0,0 +1,321 @@
+package com.defi.common.util.log.appender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Journal chỉ ghi nối trên đĩa, chia thành các segment kích thước cố định được memory-map,
+ * nơi EventRedisAppender đổ event khi đường ghi Redis bị nghẽn. Ghi một event chỉ là copy vào page cache,
+ * không có system call, nên độ trễ của luồng log không đổi khi Redis gặp sự cố.
+ * <p>
+ * Mỗi record là [độ dài int][payload UTF-8]; payload được ghi trước, độ dài sau cùng, nên record dở dang
+ * (độ dài 0) đánh dấu điểm kết thúc. Một thread đọc (flusher của appender) lấy record theo thứ tự ghi
+ * bằng peek/commit; vị trí đã commit được lưu trong file checkpoint nên sau khi khởi động lại
+ * phần chưa gửi vẫn được phát lại. Record có thể được gửi lại nếu tiến trình dừng giữa lúc gửi và commit.
+ */
+class SpillJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ConcurrentLinkedDeque<Segment> segments = new ConcurrentLinkedDeque<>();
+    private final AtomicLong pendingRecords = new AtomicLong();
+    private final FileChannel checkpoint;
+
+    private Segment writeSegment;
+    private Segment readSegment;
+    private int readPosition;
+    private int peekedPosition;
+    private int peekedRecords;
+    private boolean closed;
+
+    SpillJournal(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(2, maxSegments);
+        Files.createDirectories(directory);
+        this.checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    /**
+     * Mở lại các segment còn sót từ lần chạy trước, bỏ qua phần đã được commit theo checkpoint.
+     * Segment không còn record chưa commit bị xóa ngay, kể cả segment ghi dở của lần chạy trước,
+     * nên số segment không tăng dần qua các lần khởi động. Event mới luôn được ghi vào một segment mới.
+     */
+    private void recover() throws IOException {
+        long checkpointSegment = -1;
+        int checkpointPosition = 0;
+        ByteBuffer data = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        if (checkpoint.read(data, 0) == data.capacity()) {
+            data.flip();
+            checkpointSegment = data.getLong();
+            checkpointPosition = data.getInt();
+        }
+
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> ids.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        ids.sort(Long::compare);
+        long nextId = 0;
+        for (long id : ids) {
+            nextId = id + 1;
+            if (id < checkpointSegment) {
+                Files.deleteIfExists(segmentPath(id));
+                continue;
+            }
+            Segment segment = Segment.open(segmentPath(id), id, segmentBytes);
+            int from = id == checkpointSegment ? Math.min(checkpointPosition, segment.writePosition) : 0;
+            int records = segment.countRecords(from);
+            if (records == 0) {
+                segment.delete();
+                continue;
+            }
+            pendingRecords.addAndGet(records);
+            segments.addLast(segment);
+            if (readSegment == null) {
+                readSegment = segment;
+                readPosition = from;
+            }
+        }
+        writeSegment = Segment.create(segmentPath(nextId), nextId, segmentBytes);
+        segments.addLast(writeSegment);
+        if (readSegment == null) {
+            readSegment = writeSegment;
+            readPosition = 0;
+        }
+        peekedPosition = readPosition;
+        writeCheckpoint(readSegment.id, readPosition);
+    }
+
+    /**
+     * @return false nếu journal đã đạt maxSegments hoặc event lớn hơn một segment
+     */
+    synchronized boolean append(String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (recordBytes + HEADER_BYTES > segmentBytes) {
+            return false;
+        }
+        if (writeSegment.writePosition + recordBytes + HEADER_BYTES > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            writeSegment.force();
+            long nextId = writeSegment.id + 1;
+            writeSegment = Segment.create(segmentPath(nextId), nextId, segmentBytes);
+            segments.addLast(writeSegment);
+        }
+        writeSegment.write(payload);
+        pendingRecords.incrementAndGet();
+        return true;
+    }
+
+    boolean hasPending() {
+        return pendingRecords.get() > 0;
+    }
+
+    long pendingCount() {
+        return pendingRecords.get();
+    }
+
+    /**
+     * Đọc tối đa max record kế tiếp mà không đánh dấu đã xử lý; chỉ gọi từ thread đọc.
+     * Gọi lại peek khi chưa commit sẽ trả về cùng các record.
+     */
+    List<String> peek(int max) {
+        List<String> messages = new ArrayList<>();
+        Segment segment = readSegment;
+        int position = readPosition;
+        while (messages.size() < max) {
+            byte[] payload = segment.read(position);
+            if (payload == null) {
+                Segment next = nextSegment(segment);
+                if (next == null) {
+                    break;
+                }
+                // Segment mới chỉ được tạo sau khi segment cũ đã ghi xong: đọc lại để không bỏ sót record cuối
+                payload = segment.read(position);
+                if (payload == null) {
+                    // Chỉ chuyển segment khi chưa lấy record nào, để một lần commit luôn nằm trong một segment
+                    if (!messages.isEmpty()) {
+                        break;
+                    }
+                    advanceTo(next);
+                    segment = next;
+                    position = 0;
+                    continue;
+                }
+            }
+            messages.add(new String(payload, StandardCharsets.UTF_8));
+            position += HEADER_BYTES + payload.length;
+        }
+        peekedPosition = position;
+        peekedRecords = messages.size();
+        return messages;
+    }
+
+    /**
+     * Đánh dấu các record của lần peek gần nhất đã được gửi thành công và lưu checkpoint.
+     */
+    void commit() throws IOException {
+        if (peekedRecords == 0) {
+            return;
+        }
+        readPosition = peekedPosition;
+        pendingRecords.addAndGet(-peekedRecords);
+        peekedRecords = 0;
+        writeCheckpoint(readSegment.id, readPosition);
+    }
+
+    private Segment nextSegment(Segment segment) {
+        boolean found = false;
+        for (Segment candidate : segments) {
+            if (found) {
+                return candidate;
+            }
+            found = candidate == segment;
+        }
+        return null;
+    }
+
+    /**
+     * Segment cũ đã đọc hết (và không còn được ghi) thì bị xóa.
+     */
+    private void advanceTo(Segment next) {
+        Segment finished = readSegment;
+        readSegment = next;
+        readPosition = 0;
+        segments.remove(finished);
+        try {
+            writeCheckpoint(next.id, 0);
+            finished.delete();
+        } catch (IOException e) {
+            // Segment không xóa được sẽ bị bỏ qua theo checkpoint ở lần khởi động sau
+        }
+    }
+
+    private void writeCheckpoint(long segmentId, int position) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        data.putLong(segmentId).putInt(position).flip();
+        checkpoint.write(data, 0);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.force();
+            segment.channel.close();
+        }
+        checkpoint.close();
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private volatile int writePosition;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer, int writePosition) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writePosition = writePosition;
+        }
+
+        static Segment create(Path path, long id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), 0);
+        }
+
+        static Segment open(Path path, long id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            Segment segment = new Segment(id, path, channel, buffer, 0);
+            // Tìm điểm kết thúc: record đầu tiên có độ dài 0 hoặc vượt quá segment
+            int position = 0;
+            while (position + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity()) {
+                    break;
+                }
+                position += HEADER_BYTES + length;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+
+        /**
+         * Chỉ gọi khi đang giữ lock của journal.
+         */
+        void write(byte[] payload) {
+            int position = writePosition;
+            buffer.put(position + HEADER_BYTES, payload);
+            buffer.putInt(position, payload.length);
+            writePosition = position + HEADER_BYTES + payload.length;
+        }
+
+        /**
+         * @return record tại position, null nếu chưa có record nào được ghi ở đó
+         */
+        byte[] read(int position) {
+            if (position >= writePosition) {
+                return null;
+            }
+            byte[] payload = new byte[buffer.getInt(position)];
+            buffer.get(position + HEADER_BYTES, payload);
+            return payload;
+        }
+
+        int countRecords(int from) {
+            int count = 0;
+            int position = from;
+            while (position < writePosition) {
+                position += HEADER_BYTES + buffer.getInt(position);
+                count++;
+            }
+            return count;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.defi.common.util.log.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.CompositeCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Mã hóa EventLog trên Redis stream. Entry mang payload ở field fieldName và định dạng ở field HEADER_FIELD;
+ * entry không có header là JSON (định dạng cũ), nên entry ghi trước khi có codec vẫn đọc được
+ * và entry JSON mới vẫn đọc được bởi listener cũ.
+ * <p>
+ * SMILE là dạng nhị phân của JSON (Jackson Smile): không phải format/parse văn bản và tên field lặp lại
+ * trong document được tham chiếu ngược thay vì ghi lại, nên entry nhỏ hơn và parse nhanh hơn.
+ * <p>
+ * Một entry có thể chứa cả một lô event được nén chung (field COMPRESSION_FIELD): payload là
+ * [số event int]([độ dài int][event])* sau khi deflate. Nén theo lô hiệu quả hơn nhiều so với nén
+ * từng event vì các event cùng lô lặp lại tên field và giá trị (type, subjectType...).
+ * Stream phải được đọc/ghi bằng STREAM_CODEC (tên field là chuỗi, giá trị là byte thô).
+ */
+public final class EventCodec {
+    public static final String HEADER_FIELD = "codec";
+    public static final String COMPRESSION_FIELD = "compression";
+    public static final Codec STREAM_CODEC = new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper(JSON_FACTORY);
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(SMILE_FACTORY);
+    // Giới hạn khi giải nén một lô, tránh entry hỏng hoặc độc hại làm cạn bộ nhớ
+    private static final int MAX_BATCH_BYTES = 64 * 1024 * 1024;
+
+    public enum Format {
+        JSON, SMILE;
+
+        public String headerValue() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Format parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Compression {
+        NONE, DEFLATE;
+
+        public String headerValue() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Compression parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Một event đã giải mã; payload là byte của event trên stream (trước khi nén), đúng như appender đã ghi.
+     */
+    public record Decoded(JsonNode document, byte[] payload) {
+        public int sizeInBytes() {
+            return payload.length;
+        }
+    }
+
+    private EventCodec() {
+    }
+
+    /**
+     * Chuyển chuỗi JSON do EventLogger tạo sang format; với SMILE các token được copy trực tiếp
+     * từ parser JSON sang generator Smile, không dựng cây trung gian.
+     */
+    public static byte[] encode(String json, Format format) throws IOException {
+        if (format == Format.JSON) {
+            return json.getBytes(StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length());
+        try (JsonParser parser = JSON_FACTORY.createParser(json);
+             JsonGenerator generator = SMILE_FACTORY.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Nén các payload đã được encode (cùng một format) thành payload của một entry.
+     */
+    public static byte[] compress(List<byte[]> payloads, int level) throws IOException {
+        int rawBytes = Integer.BYTES;
+        for (byte[] payload : payloads) {
+            rawBytes += Integer.BYTES + payload.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rawBytes / 4 + 64);
+        Deflater deflater = new Deflater(level);
+        try (DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(out, deflater))) {
+            data.writeInt(payloads.size());
+            for (byte[] payload : payloads) {
+                data.writeInt(payload.length);
+                data.write(payload);
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return các event của entry theo thứ tự ghi (một phần tử nếu entry không nén), null nếu entry không có payload
+     * @throws IOException nếu payload hỏng, không phải JSON object hoặc header không được hỗ trợ
+     */
+    public static List<Decoded> decode(Map<String, byte[]> fields, String fieldName) throws IOException {
+        byte[] payload = fields.get(fieldName);
+        if (payload == null) {
+            return null;
+        }
+        ObjectMapper mapper = header(fields, HEADER_FIELD, Format.JSON, Format::parse) == Format.SMILE
+                ? SMILE_MAPPER : JSON_MAPPER;
+        if (header(fields, COMPRESSION_FIELD, Compression.NONE, Compression::parse) == Compression.NONE) {
+            return List.of(new Decoded(readObject(mapper, payload), payload));
+        }
+        return decodeBatch(mapper, payload);
+    }
+
+    private static List<Decoded> decodeBatch(ObjectMapper mapper, byte[] payload) throws IOException {
+        InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(payload));
+        try (DataInputStream data = new DataInputStream(new BoundedInputStream(inflater, MAX_BATCH_BYTES))) {
+            int count = data.readInt();
+            if (count < 0 || count > MAX_BATCH_BYTES / Integer.BYTES) {
+                throw new IOException("Invalid event batch size: " + count);
+            }
+            List<Decoded> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = data.readInt();
+                if (length < 0 || length > MAX_BATCH_BYTES) {
+                    throw new IOException("Invalid event length in batch: " + length);
+                }
+                byte[] event = new byte[length];
+                data.readFully(event);
+                events.add(new Decoded(readObject(mapper, event), event));
+            }
+            return events;
+        } catch (EOFException e) {
+            throw new IOException("Truncated event batch", e);
+        }
+    }
+
+    private static JsonNode readObject(ObjectMapper mapper, byte[] payload) throws IOException {
+        JsonNode document = mapper.readTree(payload);
+        if (document == null || !document.isObject()) {
+            throw new IOException("Event payload is not a JSON object");
+        }
+        return document;
+    }
+
+    private static <T> T header(Map<String, byte[]> fields, String field, T defaultValue,
+                                Function<String, T> parser) throws IOException {
+        byte[] value = fields.get(field);
+        if (value == null) {
+            return defaultValue;
+        }
+        String text = new String(value, StandardCharsets.UTF_8);
+        try {
+            return parser.apply(text);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported event " + field + ": " + text);
+        }
+    }
+
+    /**
+     * Ném IOException khi đọc quá limit byte thay vì tiếp tục giải nén.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                consume(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                consume(read);
+            }
+            return read;
+        }
+
+        private void consume(int bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IOException("Event batch exceeds " + MAX_BATCH_BYTES + " bytes");
+            }
+        }
+    }
+}
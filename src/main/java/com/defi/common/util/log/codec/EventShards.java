@@ -0,0 +1,61 @@
+package com.defi.common.util.log.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Quy ước chia event stream thành nhiều shard, dùng chung cho EventRedisAppender và EventRedisListener.
+ * Với shardCount N > 1, event được ghi vào các stream streamName:0 .. streamName:N-1; mỗi key nằm ở một
+ * hash slot riêng nên trên Redis Cluster các shard được phân tán lên nhiều node.
+ * Event được định tuyến theo hash của subjectId nên mọi event của một subject nằm trên cùng một shard;
+ * thứ tự trong shard là thứ tự ghi, nhưng listener index đồng thời nên không giữ thứ tự index theo subject.
+ * shardCount của appender và listener phải giống nhau; khi chuyển từ 1 sang N listener đọc nốt stream gốc.
+ */
+public final class EventShards {
+    public static final String SUBJECT_FIELD = "subjectId";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private EventShards() {
+    }
+
+    public static String streamName(String baseName, int shard) {
+        return baseName + ":" + shard;
+    }
+
+    /**
+     * Hash của String được đặc tả cố định nên mọi producer, ở mọi JVM, chọn cùng một shard cho một subject.
+     */
+    public static int shardOf(String subjectId, int shardCount) {
+        int hash = subjectId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    /**
+     * Đọc subjectId ở cấp ngoài cùng của chuỗi JSON bằng streaming parser, dừng ngay khi gặp field,
+     * không dựng cây document.
+     *
+     * @return null nếu không có subjectId dạng giá trị đơn hoặc chuỗi không phải JSON hợp lệ
+     */
+    public static String subjectId(String json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (SUBJECT_FIELD.equals(field)) {
+                    return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -2,6 +2,17 @@ package com.defi.search;
 
 import com.defi.common.api.BaseResponse;
 import com.defi.common.api.CommonError;
+import com.defi.search.config.SearchConfig;
+import com.defi.search.dto.EventFilter;
+import com.defi.search.dto.EventQuery;
+import com.defi.search.dto.FilterNode;
+import com.defi.search.dto.SearchCursor;
+import com.defi.search.dto.TimelineWatermark;
+import com.defi.search.export.NdjsonExporter;
+import com.defi.search.service.impl.SearchLogImpl;
+import com.defi.search.sketch.CardinalityTracker;
+import com.defi.search.tail.LiveTailHub;
+import com.defi.search.tail.TailFilter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -10,11 +21,18 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 @Slf4j
 public class SearchHandler {
 
     private static final SearchManager searchManager = SearchManager.getInstance();
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Set<String> FACET_FIELDS = Set.of("type", "targetType", "targetId", "subjectType", "subjectId");
 
 
     public static Future<BaseResponse<?>> handleFindByDateRange(RoutingContext ctx) {
@@ -39,6 +57,82 @@ public class SearchHandler {
         }
     }
 
+    /**
+     * Trang đầu cần fromTime/toTime; các trang sau chỉ cần cursor trả về từ trang trước.
+     */
+    public static Future<BaseResponse<?>> handleFindByDateRangePage(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM,
+                        "Missing or invalid JSON body"));
+
+            int size = getIntParam(params, "size", 100);
+            if (size <= 0 || size > 1000)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            String token = getStringParam(params, "cursor");
+            if (!isInvalid(token)) {
+                SearchCursor cursor = SearchCursor.decode(token);
+                if (cursor == null || cursor.getPitId() == null)
+                    return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid cursor"));
+                return searchManager.findByDateRangePage(cursor.getFromTime(), cursor.getToTime(), size, cursor);
+            }
+
+            Long fromTime = getLongParam(params, "fromTime");
+            Long toTime = getLongParam(params, "toTime");
+            if (fromTime == null || toTime == null || fromTime > toTime) {
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid time range"));
+            }
+
+            return searchManager.findByDateRangePage(fromTime, toTime, size, null);
+        } catch (Exception e) {
+            log.error("Error in handleFindByDateRangePage", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    /**
+     * Xuất toàn bộ EventLog trong khoảng thời gian dưới dạng NDJSON, ghi trực tiếp ra response.
+     * Body: fromTime, toTime, gzip (mặc định false).
+     */
+    public static void handleExportByDateRange(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            Long fromTime = params == null ? null : getLongParam(params, "fromTime");
+            Long toTime = params == null ? null : getLongParam(params, "toTime");
+            if (fromTime == null || toTime == null || fromTime > toTime) {
+                ctx.response().setStatusCode(400).end("Invalid time range");
+                return;
+            }
+            boolean gzip = params.path("gzip").asBoolean(false);
+            int pageSize = SearchConfig.getInstance().getConfig().path("export").path("pageSize").asInt(1000);
+
+            new NdjsonExporter(SearchLogImpl.getInstance(), ctx.vertx().getOrCreateContext(), ctx.response(),
+                    fromTime, toTime, pageSize, gzip).start();
+        } catch (Exception e) {
+            log.error("Error in handleExportByDateRange", e);
+            ctx.response().setStatusCode(500).end();
+        }
+    }
+
+    /**
+     * Server-Sent Events cho event mới, đọc thẳng từ Redis stream.
+     * Query param tùy chọn: type, subjectId, targetType.
+     */
+    public static void handleLiveTail(RoutingContext ctx) {
+        try {
+            TailFilter filter = new TailFilter(ctx.queryParams().get("type"), ctx.queryParams().get("subjectId"),
+                    ctx.queryParams().get("targetType"));
+            if (!LiveTailHub.getInstance().subscribe(ctx.vertx().getOrCreateContext(), ctx.response(), filter)) {
+                ctx.response().setStatusCode(503).end("Live tail unavailable");
+            }
+        } catch (Exception e) {
+            log.error("Error in handleLiveTail", e);
+            ctx.response().setStatusCode(500).end();
+        }
+    }
+
     public static Future<BaseResponse<?>> handleFindUserByType(RoutingContext ctx) {
         try {
             ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
@@ -65,6 +159,88 @@ public class SearchHandler {
         }
     }
 
+    /**
+     * Body: id, tùy chọn createdAt (lấy từ dòng trong danh sách) để chỉ truy vấn partition chứa event.
+     */
+    public static Future<BaseResponse<?>> handleFindEventById(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            String id = getStringParam(params, "id");
+            Long createdAt = getLongParam(params, "createdAt");
+
+            if (isInvalid(id))
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            return searchManager.findEventById(id, createdAt);
+
+        } catch (Exception e) {
+            log.error("Error in handleFindEventById", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    public static Future<BaseResponse<?>> handleFindTrace(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            String correlationId = getStringParam(params, "correlationId");
+
+            if (isInvalid(correlationId))
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            return searchManager.findTrace(correlationId);
+
+        } catch (Exception e) {
+            log.error("Error in handleFindTrace", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    /**
+     * Body: subjectId, size (mặc định 50), tùy chọn since (token watermark của lần poll trước) hoặc cursor
+     * (trang cũ hơn).
+     */
+    public static Future<BaseResponse<?>> handleFindSubjectTimeline(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            String subjectId = getStringParam(params, "subjectId");
+            int size = getIntParam(params, "size", 50);
+
+            if (isInvalid(subjectId) || size <= 0 || size > 1000)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            TimelineWatermark since = null;
+            String sinceToken = getStringParam(params, "since");
+            if (!isInvalid(sinceToken)) {
+                since = TimelineWatermark.decode(sinceToken);
+                if (since == null)
+                    return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid since"));
+            }
+
+            SearchCursor cursor = null;
+            String token = getStringParam(params, "cursor");
+            if (!isInvalid(token)) {
+                cursor = SearchCursor.decode(token);
+                if (cursor == null || cursor.getPitId() != null)
+                    return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid cursor"));
+            }
+
+            return searchManager.findSubjectTimeline(subjectId, since, size, cursor);
+
+        } catch (Exception e) {
+            log.error("Error in handleFindSubjectTimeline", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
     public static Future<BaseResponse<?>> handleFindEventLogBySubjectId(RoutingContext ctx) {
         try {
             ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
@@ -100,6 +276,9 @@ public class SearchHandler {
             if (size <= 0 || size > 1000)
                 return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
 
+            if (params.path("approximate").asBoolean(false))
+                return searchManager.countEventsByTargetApproximate(fromTime, toTime, size);
+
             return searchManager.countEventsByTarget(fromTime, toTime, size);
 
         } catch (Exception e) {
@@ -148,6 +327,9 @@ public class SearchHandler {
             if (size <= 0 || size > 1000)
                 return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
 
+            if (params.path("approximate").asBoolean(false))
+                return searchManager.findTopUsersByEventCountApproximate(fromTime, toTime, size);
+
             return searchManager.findTopUsersByEventCount(fromTime, toTime, size);
 
         } catch (Exception e) {
@@ -156,6 +338,195 @@ public class SearchHandler {
         }
     }
 
+    /**
+     * Body: filter (cây and/or/not, xem {@link FilterNode}), fromTime, toTime,
+     * sort (danh sách {"field", "order": asc|desc}, mặc định createdAt desc), fields và size (mặc định 100).
+     */
+    public static Future<BaseResponse<?>> handleSearchEvents(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            Long fromTime = getLongParam(params, "fromTime");
+            Long toTime = getLongParam(params, "toTime");
+            int size = getIntParam(params, "size", 100);
+
+            if (fromTime != null && toTime != null && fromTime > toTime)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid time range"));
+
+            if (size <= 0 || size > 1000)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            FilterNode filter;
+            List<EventQuery.SortField> sort = new ArrayList<>();
+            List<String> fields = new ArrayList<>();
+            List<String> excludes = new ArrayList<>();
+            try {
+                filter = params.hasNonNull("filter") ? FilterNode.parse(params.get("filter")) : null;
+                for (JsonNode item : params.path("sort")) {
+                    String field = item.path("field").asText(null);
+                    String order = item.path("order").asText("asc");
+                    if (!EventQuery.SORT_FIELDS.contains(field) || !(order.equals("asc") || order.equals("desc")))
+                        throw new IllegalArgumentException("Invalid sort: " + item);
+                    sort.add(new EventQuery.SortField(field, order.equals("desc")));
+                }
+                for (JsonNode item : params.path("fields")) {
+                    if (!EventQuery.SOURCE_FIELDS.contains(item.asText()))
+                        throw new IllegalArgumentException("Invalid field: " + item);
+                    fields.add(item.asText());
+                }
+                for (JsonNode item : params.path("excludes")) {
+                    if (!EventQuery.SOURCE_FIELDS.contains(item.asText()))
+                        throw new IllegalArgumentException("Invalid field: " + item);
+                    excludes.add(item.asText());
+                }
+            } catch (IllegalArgumentException e) {
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, e.getMessage()));
+            }
+            if (sort.isEmpty())
+                sort.add(new EventQuery.SortField("createdAt", true));
+            // Danh sách mặc định không kèm payload data, trừ khi client chọn field hoặc yêu cầu includeData
+            if (fields.isEmpty() && excludes.isEmpty() && !params.path("includeData").asBoolean(false))
+                excludes.add("data");
+
+            return searchManager.searchEvents(EventQuery.builder()
+                    .filter(filter)
+                    .fromTime(fromTime)
+                    .toTime(toTime)
+                    .sort(sort)
+                    .fields(fields)
+                    .excludes(excludes)
+                    .size(size)
+                    .build());
+
+        } catch (Exception e) {
+            log.error("Error in handleSearchEvents", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    /**
+     * Body: fromTime, toTime, tùy chọn type, targetType, subjectType, subjectId và
+     * facets: danh sách tên field hoặc {"field": ..., "size": ...} (size mặc định 10).
+     */
+    public static Future<BaseResponse<?>> handleFindFacets(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            EventFilter filter = EventFilter.builder()
+                    .fromTime(getLongParam(params, "fromTime"))
+                    .toTime(getLongParam(params, "toTime"))
+                    .type(getStringParam(params, "type"))
+                    .targetType(getStringParam(params, "targetType"))
+                    .subjectType(getStringParam(params, "subjectType"))
+                    .subjectId(getStringParam(params, "subjectId"))
+                    .build();
+
+            if (filter.getFromTime() == null || filter.getToTime() == null
+                    || filter.getFromTime() > filter.getToTime())
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid time range"));
+
+            JsonNode facetsNode = params.get("facets");
+            if (facetsNode == null || !facetsNode.isArray() || facetsNode.isEmpty())
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM,
+                        "Missing or invalid 'facets' parameter"));
+
+            Map<String, Integer> facets = new LinkedHashMap<>();
+            for (JsonNode facet : facetsNode) {
+                String field = facet.isTextual() ? facet.asText() : facet.path("field").asText(null);
+                int size = facet.path("size").asInt(10);
+                if (!FACET_FIELDS.contains(field) || size <= 0 || size > 1000)
+                    return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM,
+                            "Invalid facet: " + facet));
+                facets.put(field, size);
+            }
+
+            return searchManager.findFacets(filter, facets);
+
+        } catch (Exception e) {
+            log.error("Error in handleFindFacets", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    /**
+     * Body: fromTime, toTime, maxPoints (mặc định 200, tối đa 2000), splitByType (số type tách riêng, 0 là không tách).
+     */
+    public static Future<BaseResponse<?>> handleEventHistogram(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            Long fromTime = getLongParam(params, "fromTime");
+            Long toTime = getLongParam(params, "toTime");
+            int maxPoints = getIntParam(params, "maxPoints", 200);
+            int splitByType = getIntParam(params, "splitByType", 0);
+
+            if (fromTime == null || toTime == null || fromTime > toTime)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid time range"));
+
+            if (maxPoints <= 0 || maxPoints > 2000 || splitByType < 0 || splitByType > 100)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            return searchManager.eventHistogram(fromTime, toTime, maxPoints, splitByType);
+
+        } catch (Exception e) {
+            log.error("Error in handleEventHistogram", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    /**
+     * Body: dimension (subjectId | targetId), fromTime, toTime và tùy chọn một trong type, targetType.
+     */
+    public static Future<BaseResponse<?>> handleCountDistinct(RoutingContext ctx) {
+        try {
+            ObjectNode params = convertToObjectNode(ctx.body().asJsonObject());
+            if (params == null)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM));
+
+            String dimension = getStringParam(params, "dimension");
+            Long fromTime = getLongParam(params, "fromTime");
+            Long toTime = getLongParam(params, "toTime");
+            String type = getStringParam(params, "type");
+            String targetType = getStringParam(params, "targetType");
+
+            if (!CardinalityTracker.DIMENSIONS.contains(dimension))
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM,
+                        "Missing or invalid 'dimension' parameter"));
+
+            if (fromTime == null || toTime == null || fromTime > toTime)
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Invalid time range"));
+
+            if (!isInvalid(type) && !isInvalid(targetType))
+                return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM,
+                        "Only one of 'type' and 'targetType' can be set"));
+
+            if (!isInvalid(type))
+                return searchManager.countDistinct(dimension, "type", type, fromTime, toTime);
+            if (!isInvalid(targetType))
+                return searchManager.countDistinct(dimension, "targetType", targetType, fromTime, toTime);
+            return searchManager.countDistinct(dimension, null, null, fromTime, toTime);
+
+        } catch (Exception e) {
+            log.error("Error in handleCountDistinct", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
+    public static Future<BaseResponse<?>> handleStreamStats(RoutingContext ctx) {
+        try {
+            return searchManager.getStreamStats();
+        } catch (Exception e) {
+            log.error("Error in handleStreamStats", e);
+            return Future.succeededFuture(BaseResponse.of(CommonError.INTERNAL_SERVER, "Unexpected error"));
+        }
+    }
+
     // Helper methods
     private static ObjectNode convertToObjectNode(JsonObject vertxJson) {
         try {
@@ -3,14 +3,27 @@ package com.defi.search;
 import com.defi.common.api.BaseResponse;
 import com.defi.common.api.CommonError;
 import com.defi.common.util.log.entity.EventLog;
+import com.defi.search.dto.EventFilter;
+import com.defi.search.dto.EventQuery;
+import com.defi.search.dto.SearchCursor;
+import com.defi.search.dto.StreamStats;
+import com.defi.search.dto.TimelineWatermark;
+import com.defi.search.listener.EventRedisListener;
 import com.defi.search.service.impl.SearchLogImpl;
+import com.defi.search.sketch.CardinalityTracker;
+import com.defi.search.sketch.HeavyHitterTracker;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
+import io.vertx.core.Vertx;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class SearchManager {
@@ -19,6 +32,8 @@ public class SearchManager {
 
     // Thay thế SearchQuerier bằng SearchLogImpl
     private final SearchLogImpl searchLog = SearchLogImpl.getInstance();
+    private final HeavyHitterTracker heavyHitters = HeavyHitterTracker.getInstance();
+    private final CardinalityTracker cardinality = CardinalityTracker.getInstance();
 
     private SearchManager() {
 
@@ -26,48 +41,173 @@ public class SearchManager {
 
 
     public Future<BaseResponse<?>> findByDateRange(Long startTime, Long endTime) {
-        List<EventLog> result = searchLog.findByDateRange(startTime, endTime);
-        return Future.succeededFuture(BaseResponse.of(CommonError.SUCCESS, result));
+        return respond(searchLog.findByDateRange(startTime, endTime));
+    }
+
+    /**
+     * Một trang EventLog trong khoảng thời gian, phân trang bằng cursor (search_after trên point-in-time).
+     */
+    public Future<BaseResponse<?>> findByDateRangePage(Long startTime, Long endTime, int size, SearchCursor cursor) {
+        return respond(searchLog.findByDateRangePage(startTime, endTime, size, cursor));
+    }
+
+    /**
+     * EventLog đầy đủ (kèm data) khi mở một event từ danh sách; BAD_REQUEST khi không tìm thấy.
+     */
+    public Future<BaseResponse<?>> findEventById(String id, Long createdAt) {
+        return toFuture(searchLog.findEventById(id, createdAt)).map(event -> event != null
+                ? BaseResponse.of(CommonError.SUCCESS, event)
+                : BaseResponse.of(CommonError.BAD_REQUEST));
+    }
+
+    /**
+     * Các event cùng correlationId theo thứ tự thời gian.
+     */
+    public Future<BaseResponse<?>> findTrace(String correlationId) {
+        return respond(searchLog.findTrace(correlationId));
+    }
+
+    /**
+     * Timeline của subject, mới nhất trước, phân trang bằng cursor và lọc event mới bằng since.
+     */
+    public Future<BaseResponse<?>> findSubjectTimeline(String subjectId, TimelineWatermark since, int size,
+                                                       SearchCursor cursor) {
+        return respond(searchLog.findSubjectTimeline(subjectId, since, size, cursor));
     }
 
     /**
      * Tìm kiếm EventLog theo loại sự kiện (type) trong một khoảng thời gian.
      */
     public Future<BaseResponse<?>> findUserByType(String type, Long startTime, Long endTime) {
-        List<EventLog> result = searchLog.findUserByType(type, startTime, endTime);
-        return Future.succeededFuture(BaseResponse.of(CommonError.SUCCESS, result));
+        return respond(searchLog.findUserByType(type, startTime, endTime));
     }
 
     /**
      * Tìm kiếm EventLog theo subjectId.
      */
     public Future<BaseResponse<?>> findEventLogBySubjectId(String subjectId) {
-        List<EventLog> result = searchLog.findEventLogBySubjectId(subjectId);
-        return Future.succeededFuture(BaseResponse.of(CommonError.SUCCESS, result));
+        return respond(searchLog.findEventLogBySubjectId(subjectId));
     }
 
     /**
      * Thống kê số lượng sự kiện trên mỗi target.
      */
     public Future<BaseResponse<?>> countEventsByTarget(Long startTime, Long endTime, int size) {
-        List<?> result = searchLog.countEventsByTarget(startTime, endTime, size);
-        return Future.succeededFuture(BaseResponse.of(CommonError.SUCCESS, result));
+        return respond(searchLog.countEventsByTarget(startTime, endTime, size));
     }
 
     /**
      * Thống kê số lượng sự kiện trên mỗi type.
      */
     public Future<BaseResponse<?>> countEventsByType(Long startTime, Long endTime, int size) {
-        List<?> result = searchLog.countEventsByType(startTime, endTime, size);
-        return Future.succeededFuture(BaseResponse.of(CommonError.SUCCESS, result));
+        return respond(searchLog.countEventsByType(startTime, endTime, size));
     }
 
     /**
      * Thống kê top người dùng thực hiện nhiều sự kiện nhất.
      */
     public Future<BaseResponse<?>> findTopUsersByEventCount(Long startTime, Long endTime, int size) {
-        List<?> result = searchLog.findTopUsersByEventCount(startTime, endTime, size);
-        return Future.succeededFuture(BaseResponse.of(CommonError.SUCCESS, result));
+        return respond(searchLog.findTopUsersByEventCount(startTime, endTime, size));
+    }
+
+    /**
+     * Tìm event theo cây điều kiện lọc tổng quát.
+     */
+    public Future<BaseResponse<?>> searchEvents(EventQuery query) {
+        return respond(searchLog.searchEvents(query));
+    }
+
+    /**
+     * Mọi facet của dashboard trong một request OpenSearch.
+     */
+    public Future<BaseResponse<?>> findFacets(EventFilter filter, Map<String, Integer> facets) {
+        return respond(searchLog.findFacets(filter, facets));
+    }
+
+    /**
+     * Chuỗi số event theo thời gian, interval được chọn tự động theo maxPoints.
+     */
+    public Future<BaseResponse<?>> eventHistogram(Long startTime, Long endTime, int maxPoints, int splitByTypeSize) {
+        return respond(searchLog.eventHistogram(startTime, endTime, maxPoints, splitByTypeSize));
+    }
+
+    /**
+     * Top target xấp xỉ từ sketch dùng chung giữa các instance, kèm cận sai số cho từng key.
+     */
+    public Future<BaseResponse<?>> countEventsByTargetApproximate(Long startTime, Long endTime, int size) {
+        return estimate("targetId", startTime, endTime, size);
+    }
+
+    /**
+     * Top người dùng xấp xỉ từ sketch dùng chung giữa các instance, kèm cận sai số cho từng key.
+     */
+    public Future<BaseResponse<?>> findTopUsersByEventCountApproximate(Long startTime, Long endTime, int size) {
+        return estimate("subjectId", startTime, endTime, size);
+    }
+
+    private Future<BaseResponse<?>> estimate(String dimension, Long startTime, Long endTime, int size) {
+        if (!heavyHitters.isEnabled()) {
+            return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Approximate mode is disabled"));
+        }
+        return respondBlocking(() -> heavyHitters.estimate(dimension, startTime, endTime, size));
+    }
+
+    /**
+     * Số subjectId/targetId phân biệt trong khoảng thời gian, tùy chọn lọc theo type hoặc targetType.
+     */
+    public Future<BaseResponse<?>> countDistinct(String dimension, String scopeField, String scopeValue,
+                                                 Long startTime, Long endTime) {
+        if (!cardinality.isEnabled()) {
+            return Future.succeededFuture(BaseResponse.of(CommonError.INVALID_PARAM, "Cardinality tracking is disabled"));
+        }
+        return respondBlocking(() -> cardinality.estimate(dimension, scopeField, scopeValue, startTime, endTime));
+    }
+
+    /**
+     * Độ dài, bộ nhớ và tiến độ trim của từng shard event stream, thu thập định kỳ bởi StreamTrimmer.
+     */
+    public Future<BaseResponse<?>> getStreamStats() {
+        List<StreamStats> stats = EventRedisListener.getInstance().getStreamStats();
+        return Future.succeededFuture(!stats.isEmpty()
+                ? BaseResponse.of(CommonError.SUCCESS, stats)
+                : BaseResponse.of(CommonError.BAD_REQUEST, "Stream stats not collected yet"));
+    }
+
+    /**
+     * Chuyển kết quả bất đồng bộ từ OpenSearch về lại context Vert.x của request hiện tại,
+     * event loop không bị block trong khi chờ truy vấn.
+     */
+    private static <T> Future<BaseResponse<?>> respond(CompletableFuture<T> result) {
+        return toFuture(result).map(data -> BaseResponse.of(CommonError.SUCCESS, data));
+    }
+
+    /**
+     * Chuyển kết quả về context của request hiện tại (nếu có).
+     */
+    private static <T> Future<T> toFuture(CompletableFuture<T> result) {
+        Context context = Vertx.currentContext();
+        return context != null
+                ? Future.fromCompletionStage(result, context)
+                : Future.fromCompletionStage(result);
+    }
+
+    /**
+     * Chạy phép tính trên sketch (đọc và gộp nhiều sketch từ Redis) ở worker pool của Vert.x
+     * thay vì trên event loop; kết quả trả về context của request hiện tại.
+     */
+    private static <T> Future<BaseResponse<?>> respondBlocking(Callable<T> computation) {
+        Context context = Vertx.currentContext();
+        Future<T> future;
+        if (context != null) {
+            future = context.executeBlocking(computation, false);
+        } else {
+            try {
+                future = Future.succeededFuture(computation.call());
+            } catch (Exception e) {
+                future = Future.failedFuture(e);
+            }
+        }
+        return future.map(data -> BaseResponse.of(CommonError.SUCCESS, data));
     }
 
     // Helper methods để parse parameters từ JSON
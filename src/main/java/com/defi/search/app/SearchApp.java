@@ -45,7 +45,9 @@ public class SearchApp {
             startLoop();
             startHttpServer();
         } catch (Exception e) {
-            e.printStackTrace();
+            // Không chạy tiếp khi khởi động dở: tiến trình còn sống nhưng không đọc stream, không nhận HTTP
+            log.error("Search app failed to start, exiting", e);
+            System.exit(1);
         }
     }
 
@@ -61,9 +63,13 @@ public class SearchApp {
     private void initServices() {
         //ConfigSharedServices.init();
         SearchSharedServices.init();
-        EventRedisListener.getInstance().start();
+        // Indexer phải sẵn sàng trước khi listener bắt đầu đọc stream
         SearchIndexer.getInstance().init();
-
+        EventRedisListener.getInstance().start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            EventRedisListener.getInstance().stop();
+            SearchIndexer.getInstance().stop();
+        }, "search-shutdown"));
     }
 
     private void startHttpServer() {
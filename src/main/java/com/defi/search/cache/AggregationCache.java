@@ -0,0 +1,171 @@
+package com.defi.search.cache;
+
+import com.defi.search.dto.LateEvents;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache kết quả terms aggregation (đếm số event theo một field) cho các endpoint thống kê.
+ * <p>
+ * fromTime/toTime được làm tròn theo granularity rồi chia thành các segment căn theo segmentMillis.
+ * Segment kết thúc trước watermark index (xem IngestWatermark, trừ settleMillis cho refresh của OpenSearch)
+ * là segment đã đóng, được cache lâu trong sealed cache; các segment còn lại chỉ được giữ trong live cache
+ * với TTL ngắn. Khi consumer tụt lại (backlog, message pending) watermark đứng yên nên segment chưa đủ dữ liệu
+ * không bị đóng. Event đến muộn hơn watermark được thông báo qua invalidate, các segment đã đóng chứa phút
+ * của event đó bị bỏ khỏi cache. Khi cửa sổ thời gian trượt, chỉ segment mới và segment đầu (live) phải truy vấn lại.
+ * <p>
+ * Mỗi segment lấy top shardSize key (size * 1.5 + 10, như shard_size của OpenSearch) rồi được cộng dồn:
+ * kết quả của khoảng trải nhiều segment có thể sai số nhỏ ở cuối danh sách, giống sai số doc_count_error
+ * của terms aggregation trên nhiều shard.
+ */
+public class AggregationCache {
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @FunctionalInterface
+    public interface TermsLoader {
+        /**
+         * @return số event theo key trong [startTime, endTime], sắp xếp giảm dần
+         */
+        CompletableFuture<Map<String, Long>> load(String field, long startTime, long endTime, int size);
+    }
+
+    private final boolean enabled;
+    private final long granularityMillis;
+    private final long segmentMillis;
+    private final int maxSegments;
+    private final long settleMillis;
+    private final LongSupplier watermark;
+    private final Cache<SegmentKey, CompletableFuture<Map<String, Long>>> sealed;
+    private final Cache<SegmentKey, CompletableFuture<Map<String, Long>>> live;
+
+    /**
+     * @param watermark createdAt mà mọi event cũ hơn đã được index, Long.MIN_VALUE nếu chưa xác định
+     */
+    public AggregationCache(JsonNode config, LongSupplier watermark) {
+        this.watermark = watermark;
+        this.enabled = config.path("enabled").asBoolean(true);
+        this.granularityMillis = Math.max(1, config.path("granularitySeconds").asLong(60)) * 1000;
+        this.segmentMillis = Math.max(granularityMillis,
+                config.path("segmentMinutes").asLong(60) * 60 * 1000 / granularityMillis * granularityMillis);
+        this.maxSegments = config.path("maxSegments").asInt(48);
+        this.settleMillis = config.path("settleSeconds").asLong(30) * 1000;
+        long maxEntries = config.path("maxEntries").asLong(10000);
+        this.sealed = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(config.path("sealedTtlMinutes").asLong(1440), TimeUnit.MINUTES)
+                .build();
+        this.live = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, maxEntries / 10))
+                .expireAfterWrite(config.path("liveTtlSeconds").asLong(10), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Top size key theo số event trong khoảng [startTime, endTime].
+     */
+    public CompletableFuture<List<Map.Entry<String, Long>>> topTerms(String field, long startTime, long endTime,
+                                                                    int size, TermsLoader loader) {
+        if (!enabled) {
+            return loader.load(field, startTime, endTime, size).thenApply(counts -> top(counts, size));
+        }
+
+        long from = floor(startTime, granularityMillis);
+        long toExclusive = floor(endTime, granularityMillis) + granularityMillis;
+        long sealedBefore = sealedBefore();
+        int shardSize = (int) (size * 1.5 + 10);
+
+        List<long[]> segments = split(from, toExclusive);
+        if (segments.size() > maxSegments) {
+            // Quá nhiều segment: một truy vấn cho cả khoảng, vẫn cache theo khoảng đã làm tròn
+            segments = List.of(new long[]{from, toExclusive});
+        }
+
+        List<CompletableFuture<Map<String, Long>>> parts = new ArrayList<>(segments.size());
+        for (long[] segment : segments) {
+            boolean isSealed = segment[1] <= sealedBefore;
+            parts.add(load(isSealed ? sealed : live, field, segment[0], segment[1] - 1, shardSize, loader));
+        }
+
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            if (parts.size() == 1) {
+                return top(parts.get(0).join(), size);
+            }
+            Map<String, Long> merged = new HashMap<>();
+            parts.forEach(part -> part.join().forEach((key, count) -> merged.merge(key, count, Long::sum)));
+            return top(merged, size);
+        });
+    }
+
+    /**
+     * Bỏ các segment đã đóng chứa phút của event đến muộn; lần truy vấn sau tải lại segment đó.
+     */
+    public void invalidate(LateEvents lateEvents) {
+        List<Long> minutes = lateEvents.getMinutes();
+        if (minutes == null || minutes.isEmpty()) {
+            return;
+        }
+        sealed.asMap().keySet().removeIf(key -> minutes.stream()
+                .anyMatch(minute -> minute <= key.endTime() && minute + MINUTE_MILLIS > key.startTime()));
+    }
+
+    private long sealedBefore() {
+        long current = watermark.getAsLong();
+        if (current == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return Math.min(current, System.currentTimeMillis()) - settleMillis;
+    }
+
+    /**
+     * Lưu future thay vì kết quả để các request đồng thời cho cùng segment chỉ tạo một truy vấn.
+     * Future lỗi bị xóa khỏi cache ngay để request sau truy vấn lại.
+     */
+    private CompletableFuture<Map<String, Long>> load(Cache<SegmentKey, CompletableFuture<Map<String, Long>>> cache,
+                                                      String field, long startTime, long endTime, int size,
+                                                      TermsLoader loader) {
+        SegmentKey key = new SegmentKey(field, size, startTime, endTime);
+        CompletableFuture<Map<String, Long>> future = cache.asMap()
+                .computeIfAbsent(key, k -> loader.load(field, startTime, endTime, size));
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                cache.asMap().remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    private List<long[]> split(long from, long toExclusive) {
+        List<long[]> segments = new ArrayList<>();
+        long cursor = from;
+        while (cursor < toExclusive) {
+            long end = Math.min(floor(cursor, segmentMillis) + segmentMillis, toExclusive);
+            segments.add(new long[]{cursor, end});
+            cursor = end;
+        }
+        return segments;
+    }
+
+    private static List<Map.Entry<String, Long>> top(Map<String, Long> counts, int size) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(size)
+                .map(entry -> Map.entry(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    private static long floor(long timestamp, long unit) {
+        return Math.floorDiv(timestamp, unit) * unit;
+    }
+
+    private record SegmentKey(String field, int size, long startTime, long endTime) {
+    }
+}
@@ -0,0 +1,73 @@
+package com.defi.search.cache;
+
+import com.defi.search.dto.EventTrace;
+import com.defi.search.dto.LateEvents;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Cache trace theo correlationId. Chỉ trace đã kết thúc được giữ lại: event cuối cũ hơn watermark index
+ * (xem IngestWatermark) ít nhất quietSeconds, tức mọi event có thể thuộc trace đã được index và trace đã yên lặng
+ * đủ lâu. Trace đang diễn ra, hoặc khi consumer còn tụt lại, luôn được truy vấn lại.
+ * Event muộn hơn watermark được thông báo qua invalidate để bỏ trace của correlationId đó;
+ * ttlMinutes ngắn giới hạn thời gian một trace sai có thể nằm trong cache nếu thông báo bị mất.
+ */
+public class TraceCache {
+
+    private final boolean enabled;
+    private final long quietMillis;
+    private final LongSupplier watermark;
+    private final Cache<String, EventTrace> completed;
+
+    /**
+     * @param watermark createdAt mà mọi event cũ hơn đã được index, Long.MIN_VALUE nếu chưa xác định
+     */
+    public TraceCache(JsonNode config, LongSupplier watermark) {
+        this.enabled = config.path("enabled").asBoolean(true);
+        this.quietMillis = config.path("quietSeconds").asLong(300) * 1000;
+        this.watermark = watermark;
+        this.completed = CacheBuilder.newBuilder()
+                .maximumSize(config.path("maxEntries").asLong(10000))
+                .expireAfterWrite(config.path("ttlMinutes").asLong(10), TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Trace của correlationId, từ cache nếu đã kết thúc, nếu không thì qua loader.
+     * loader trả về trace với complete = false; cache đánh dấu complete theo watermark và quiet period.
+     */
+    public CompletableFuture<EventTrace> get(String correlationId, Supplier<CompletableFuture<EventTrace>> loader) {
+        EventTrace cached = enabled ? completed.getIfPresent(correlationId) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return loader.get().thenApply(trace -> {
+            long current = Math.min(watermark.getAsLong(), System.currentTimeMillis());
+            boolean complete = trace.getEndTime() != null
+                    && current != Long.MIN_VALUE
+                    && trace.getEndTime() < current - quietMillis;
+            trace.setComplete(complete);
+            if (enabled && complete) {
+                completed.put(correlationId, trace);
+            }
+            return trace;
+        });
+    }
+
+    /**
+     * Bỏ trace của các correlationId có event đến muộn, hoặc mọi trace khi thông báo không liệt kê đủ.
+     */
+    public void invalidate(LateEvents lateEvents) {
+        if (lateEvents.isCorrelationOverflow()) {
+            completed.invalidateAll();
+        } else if (lateEvents.getCorrelationIds() != null) {
+            completed.invalidateAll(lateEvents.getCorrelationIds());
+        }
+    }
+}
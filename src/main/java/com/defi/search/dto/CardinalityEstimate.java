@@ -0,0 +1,22 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Số giá trị phân biệt ước lượng bằng HyperLogLog; sai số chuẩn tương đối là relativeError.
+ * fromTime/toTime là khoảng thời gian thực sự được tính.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardinalityEstimate {
+    private String dimension;
+    private String scopeField;
+    private String scopeValue;
+    private long distinctCount;
+    private double relativeError;
+    private long fromTime;
+    private long toTime;
+}
@@ -0,0 +1,22 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Điều kiện lọc event dùng chung cho các truy vấn nhiều facet; trường null không được lọc.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventFilter {
+    private Long fromTime;
+    private Long toTime;
+    private String type;
+    private String targetType;
+    private String subjectType;
+    private String subjectId;
+}
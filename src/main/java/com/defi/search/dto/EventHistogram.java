@@ -0,0 +1,16 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventHistogram {
+    private long intervalMillis;
+    private String interval;
+    private List<HistogramPoint> points;
+}
@@ -0,0 +1,19 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Một trang kết quả phân trang bằng cursor; T là EventSummary cho danh sách, EventLog khi cần cả payload.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventPage<T> {
+    private List<T> items;
+    private String cursor;
+    private boolean hasMore;
+}
@@ -0,0 +1,42 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Truy vấn event tổng quát: cây điều kiện lọc, khoảng thời gian, thứ tự sắp xếp
+ * và danh sách field cần trả về (rỗng là toàn bộ document) hoặc cần loại khỏi _source.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventQuery {
+    public static final Set<String> SORT_FIELDS =
+            Set.of("createdAt", "id", "type", "subjectType", "subjectId", "targetType", "targetId", "correlationId");
+    public static final Set<String> SOURCE_FIELDS =
+            Set.of("id", "createdAt", "data", "type", "subjectType", "subjectId", "targetType", "targetId",
+                    "correlationId");
+
+    private FilterNode filter;
+    private Long fromTime;
+    private Long toTime;
+    private List<SortField> sort;
+    private List<String> fields;
+    private List<String> excludes;
+    @Builder.Default
+    private int size = 100;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SortField {
+        private String field;
+        private boolean descending;
+    }
+}
@@ -0,0 +1,33 @@
+package com.defi.search.dto;
+
+import com.defi.common.token.entity.SubjectType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Dạng rút gọn của EventLog cho các danh sách: đủ cột để hiển thị nhưng không có payload data.
+ * Payload đầy đủ chỉ được tải khi mở một event (findEventById).
+ * id là id của EventLog, hoặc _id của document (hash nội dung) khi event được ghi không có id.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventSummary {
+    /**
+     * Các field _source cần lấy từ OpenSearch để dựng một EventSummary.
+     */
+    public static final List<String> FIELDS =
+            List.of("id", "type", "subjectType", "subjectId", "targetType", "targetId", "correlationId", "createdAt");
+
+    private String id;
+    private String type;
+    private SubjectType subjectType;
+    private String subjectId;
+    private String targetType;
+    private String targetId;
+    private String correlationId;
+    private long createdAt;
+}
@@ -0,0 +1,25 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Các event cùng correlationId theo thứ tự createdAt.
+ * complete: event cuối cũ hơn watermark index ít nhất quiet period nên trace được coi là đã kết thúc (và được cache);
+ * truncated: trace có nhiều event hơn giới hạn, chỉ trả về các event đầu tiên.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventTrace {
+    private String correlationId;
+    private List<EventSummary> events;
+    private Long startTime;
+    private Long endTime;
+    private long durationMillis;
+    private boolean complete;
+    private boolean truncated;
+}
@@ -0,0 +1,19 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kết quả của mọi facet trên cùng một tập event đã lọc; facets giữ thứ tự facet được yêu cầu.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacetResult {
+    private long totalEvents;
+    private Map<String, List<FacetBucket>> facets;
+}
@@ -0,0 +1,99 @@
+package com.defi.search.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cây điều kiện lọc event: AND/OR/NOT trên các điều kiện field = một trong values.
+ * Dạng JSON:
+ * {@code {"and": [...]}}, {@code {"or": [...]}}, {@code {"not": {...}}},
+ * {@code {"field": "type", "value": "LOGIN"}} hoặc {@code {"field": "type", "values": ["LOGIN", "LOGOUT"]}}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FilterNode {
+    public static final Set<String> FIELDS =
+            Set.of("type", "subjectType", "subjectId", "targetType", "targetId", "correlationId");
+    private static final int MAX_DEPTH = 8;
+    private static final int MAX_VALUES = 1000;
+
+    public enum Op {
+        AND, OR, NOT, TERM
+    }
+
+    private Op op;
+    private String field;
+    private List<String> values;
+    private List<FilterNode> children;
+
+    public static FilterNode term(String field, String... values) {
+        return new FilterNode(Op.TERM, field, Arrays.asList(values), null);
+    }
+
+    public static FilterNode and(FilterNode... children) {
+        return new FilterNode(Op.AND, null, null, Arrays.asList(children));
+    }
+
+    public static FilterNode or(FilterNode... children) {
+        return new FilterNode(Op.OR, null, null, Arrays.asList(children));
+    }
+
+    public static FilterNode not(FilterNode child) {
+        return new FilterNode(Op.NOT, null, null, List.of(child));
+    }
+
+    /**
+     * @throws IllegalArgumentException nếu node không đúng cú pháp hoặc dùng field không hỗ trợ
+     */
+    public static FilterNode parse(JsonNode node) {
+        return parse(node, 0);
+    }
+
+    private static FilterNode parse(JsonNode node, int depth) {
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("Filter must be an object");
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Filter is nested too deeply");
+        }
+        if (node.has("and") || node.has("or")) {
+            Op op = node.has("and") ? Op.AND : Op.OR;
+            JsonNode items = node.get(op == Op.AND ? "and" : "or");
+            if (!items.isArray() || items.isEmpty()) {
+                throw new IllegalArgumentException("'" + op.name().toLowerCase() + "' must be a non-empty array");
+            }
+            List<FilterNode> children = new ArrayList<>(items.size());
+            items.forEach(item -> children.add(parse(item, depth + 1)));
+            return new FilterNode(op, null, null, children);
+        }
+        if (node.has("not")) {
+            return not(parse(node.get("not"), depth + 1));
+        }
+
+        String field = node.path("field").asText(null);
+        if (!FIELDS.contains(field)) {
+            throw new IllegalArgumentException("Unsupported filter field: " + field);
+        }
+        List<String> values = new ArrayList<>();
+        if (node.path("value").isValueNode()) {
+            values.add(node.get("value").asText());
+        }
+        node.path("values").forEach(value -> {
+            if (value.isValueNode()) {
+                values.add(value.asText());
+            }
+        });
+        if (values.isEmpty() || values.size() > MAX_VALUES) {
+            throw new IllegalArgumentException("Filter on '" + field + "' needs between 1 and " + MAX_VALUES + " values");
+        }
+        return new FilterNode(Op.TERM, field, values, null);
+    }
+}
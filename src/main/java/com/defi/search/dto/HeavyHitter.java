@@ -0,0 +1,17 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Một key trong kết quả xấp xỉ: số event thật nằm trong [eventCount - error, eventCount].
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HeavyHitter {
+    private String key;
+    private long eventCount;
+    private long error;
+}
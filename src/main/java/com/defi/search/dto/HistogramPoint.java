@@ -0,0 +1,19 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Số event trong một interval bắt đầu tại time; byType chỉ có khi tách theo type.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistogramPoint {
+    private long time;
+    private long eventCount;
+    private Map<String, Long> byType;
+}
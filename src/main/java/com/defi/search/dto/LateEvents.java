@@ -0,0 +1,21 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Thông báo các event được index sau khi watermark đã vượt qua createdAt của chúng (xem IngestWatermark).
+ * minutes là các phút (epoch millis, làm tròn xuống) chứa createdAt của event đến muộn;
+ * correlationOverflow = true khi số correlationId vượt giới hạn của một thông báo và không được liệt kê đủ.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LateEvents {
+    private List<Long> minutes;
+    private List<String> correlationIds;
+    private boolean correlationOverflow;
+}
@@ -0,0 +1,47 @@
+package com.defi.search.dto;
+
+import com.defi.common.util.json.JsonUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Vị trí của một trang kết quả: point-in-time đang giữ (null với timeline, vốn đọc trực tiếp trên index),
+ * giá trị sort của document cuối và khoảng thời gian của truy vấn gốc. Client chỉ nhận chuỗi token đã mã hóa.
+ * Với timeline đọc theo since, fromId là id tie-breaker của mốc since cùng với fromTime.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchCursor {
+    private String pitId;
+    private List<String> searchAfter;
+    private Long fromTime;
+    private Long toTime;
+    private String fromId;
+
+    public String encode() {
+        byte[] json = JsonUtil.toJsonString(this).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+    }
+
+    /**
+     * @return cursor đã giải mã, null nếu token không hợp lệ
+     */
+    public static SearchCursor decode(String token) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            SearchCursor cursor = JsonUtil.fromJson(json, SearchCursor.class);
+            if (cursor == null || cursor.getSearchAfter() == null) {
+                return null;
+            }
+            return cursor;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Trạng thái event stream trên Redis tại lần thu thập gần nhất (collectedAt).
+ * memoryBytes là ước lượng của MEMORY USAGE; trimMinId là id nhỏ nhất còn được giữ ở lần trim gần nhất,
+ * trimmedEntries là tổng số entry instance này đã trim từ khi khởi động.
+ * oldestUnackedAt là thời điểm ghi của entry cũ nhất consumer group của search chưa ack
+ * (bằng collectedAt nếu đã ack hết, null nếu group chưa được tạo).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StreamStats {
+    private String streamName;
+    private long length;
+    private long memoryBytes;
+    private long pendingEntries;
+    private long lag;
+    private String trimMinId;
+    private long trimmedEntries;
+    private Long oldestUnackedAt;
+    private long collectedAt;
+}
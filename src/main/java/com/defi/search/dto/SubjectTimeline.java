@@ -0,0 +1,21 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Một trang timeline của subject, mới nhất trước. cursor dùng để lấy trang cũ hơn;
+ * watermark (token TimelineWatermark, chỉ có ở trang đầu) được client truyền lại làm since để chỉ nhận event mới.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SubjectTimeline {
+    private List<EventSummary> items;
+    private String cursor;
+    private boolean hasMore;
+    private String watermark;
+}
@@ -0,0 +1,39 @@
+package com.defi.search.dto;
+
+import com.defi.common.util.json.JsonUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Mốc since của timeline: vị trí sort (createdAt, id) của event mới nhất mà client chắc chắn đã thấy mọi event
+ * đứng trước nó. id null nghĩa là chỉ có mốc createdAt (lấy cả event cùng millisecond).
+ * Client chỉ nhận chuỗi token đã mã hóa, như SearchCursor.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TimelineWatermark {
+    private long createdAt;
+    private String id;
+
+    public String encode() {
+        byte[] json = JsonUtil.toJsonString(this).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+    }
+
+    /**
+     * @return mốc đã giải mã, null nếu token không hợp lệ
+     */
+    public static TimelineWatermark decode(String token) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            return JsonUtil.fromJson(json, TimelineWatermark.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
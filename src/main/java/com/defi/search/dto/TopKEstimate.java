@@ -0,0 +1,23 @@
+package com.defi.search.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Kết quả top-k xấp xỉ từ sketch của mọi instance (gộp qua Redis).
+ * fromTime/toTime là khoảng thời gian thực sự được tính (đã làm tròn theo bucket của sketch);
+ * key không có trong items có số event không vượt quá maxMissingCount.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TopKEstimate {
+    private List<HeavyHitter> items;
+    private long totalEvents;
+    private long maxMissingCount;
+    private long fromTime;
+    private long toTime;
+}
@@ -0,0 +1,155 @@
+package com.defi.search.export;
+
+import com.defi.common.util.json.JsonUtil;
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.log.entity.EventLog;
+import com.defi.search.dto.EventPage;
+import com.defi.search.dto.SearchCursor;
+import com.defi.search.service.SearchLog;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ghi kết quả tìm kiếm theo khoảng thời gian ra HTTP response dưới dạng NDJSON (mỗi dòng một EventLog).
+ * Dữ liệu được đọc theo từng trang qua cursor và ghi ngay ra response, trang kế tiếp chỉ được đọc
+ * khi write queue của response còn chỗ, nên bộ nhớ dùng không phụ thuộc kích thước kết quả.
+ */
+@Slf4j
+public class NdjsonExporter {
+    private static final byte NEW_LINE = '\n';
+
+    private final SearchLog searchLog;
+    private final Context context;
+    private final HttpServerResponse response;
+    private final Long fromTime;
+    private final Long toTime;
+    private final int pageSize;
+    private final boolean gzip;
+
+    private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+    private OutputStream out;
+    private SearchCursor cursor;
+    private boolean headersSent;
+    private boolean closed;
+    private long exported;
+
+    public NdjsonExporter(SearchLog searchLog, Context context, HttpServerResponse response,
+                          Long fromTime, Long toTime, int pageSize, boolean gzip) {
+        this.searchLog = searchLog;
+        this.context = context;
+        this.response = response;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.pageSize = pageSize;
+        this.gzip = gzip;
+    }
+
+    public void start() {
+        try {
+            out = gzip ? new GZIPOutputStream(chunk, true) : chunk;
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        // Client ngắt kết nối giữa chừng: dừng đọc và giải phóng point-in-time
+        response.closeHandler(v -> {
+            if (!closed) {
+                closed = true;
+                log.info("Export aborted by client after {} events", exported);
+                if (cursor != null) {
+                    searchLog.closeCursor(cursor);
+                }
+            }
+        });
+        fetchNext();
+    }
+
+    private void fetchNext() {
+        if (closed) {
+            return;
+        }
+        Future.fromCompletionStage(searchLog.exportByDateRangePage(fromTime, toTime, pageSize, cursor), context)
+                .onSuccess(this::writePage)
+                .onFailure(this::fail);
+    }
+
+    private void writePage(EventPage<EventLog> page) {
+        if (closed) {
+            if (page.getCursor() != null) {
+                searchLog.closeCursor(SearchCursor.decode(page.getCursor()));
+            }
+            return;
+        }
+        try {
+            for (EventLog event : page.getItems()) {
+                out.write(JsonUtil.mapper.writeValueAsBytes(event));
+                out.write(NEW_LINE);
+            }
+            exported += page.getItems().size();
+            if (page.isHasMore()) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+
+        sendHeaders();
+        if (chunk.size() > 0) {
+            response.write(Buffer.buffer(chunk.toByteArray()));
+            chunk.reset();
+        }
+
+        if (!page.isHasMore()) {
+            closed = true;
+            response.end();
+            log.info("Exported {} events for range [{}, {}]", exported, fromTime, toTime);
+            return;
+        }
+        cursor = SearchCursor.decode(page.getCursor());
+        if (response.writeQueueFull()) {
+            response.drainHandler(v -> fetchNext());
+        } else {
+            fetchNext();
+        }
+    }
+
+    private void sendHeaders() {
+        if (headersSent) {
+            return;
+        }
+        headersSent = true;
+        response.setChunked(true)
+                .putHeader("Content-Type", "application/x-ndjson");
+        if (gzip) {
+            response.putHeader("Content-Encoding", "gzip");
+        }
+    }
+
+    private void fail(Throwable error) {
+        ErrorLogger.create(error).log();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (cursor != null) {
+            searchLog.closeCursor(cursor);
+        }
+        if (headersSent) {
+            // Response đã bắt đầu, chỉ có thể cắt kết nối để client biết kết quả không đầy đủ
+            response.reset();
+        } else {
+            response.setStatusCode(500).end();
+        }
+    }
+}
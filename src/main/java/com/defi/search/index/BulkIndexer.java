@@ -0,0 +1,277 @@
+package com.defi.search.index;
+
+import com.defi.common.util.log.ErrorLogger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gom các document thành các request _bulk.
+ * Một batch được flush khi đủ số lượng (maxActions), đủ dung lượng (maxBytes)
+ * hoặc khi document cũ nhất đã chờ quá lingerMs.
+ * Lỗi được xử lý theo từng item: chỉ các item lỗi tạm thời (429, 5xx) được gửi lại;
+ * item bị từ chối vĩnh viễn được báo bằng {@link DocumentRejectedException}.
+ */
+@Slf4j
+public class BulkIndexer {
+
+    private final OpenSearchClient client;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long lingerMs;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<PendingDocument> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private long oldestAddedAt;
+
+    private final Semaphore inFlight;
+    private final ExecutorService bulkExecutor;
+    private final ScheduledExecutorService lingerScheduler;
+
+    public BulkIndexer(OpenSearchClient client, ObjectNode config) {
+        this.client = client;
+        this.maxActions = config.path("maxActions").asInt(1000);
+        this.maxBytes = config.path("maxBytes").asLong(5 * 1024 * 1024);
+        this.lingerMs = config.path("lingerMs").asLong(200);
+        this.maxRetries = config.path("maxRetries").asInt(3);
+        this.retryBackoffMs = config.path("retryBackoffMs").asLong(100);
+        int concurrentRequests = Math.max(1, config.path("concurrentRequests").asInt(2));
+
+        // Giới hạn số batch đang chờ gửi để tạo backpressure ngược về listener
+        this.inFlight = new Semaphore(concurrentRequests * 2);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.bulkExecutor = Executors.newFixedThreadPool(concurrentRequests, r -> {
+            Thread t = new Thread(r, "opensearch-bulk-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.lingerScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opensearch-bulk-linger");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(10, lingerMs / 2);
+        lingerScheduler.scheduleWithFixedDelay(this::flushIfLingered, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Thêm một document vào batch hiện tại.
+     * Phương thức có thể block khi đã có quá nhiều batch đang chờ OpenSearch xử lý.
+     *
+     * Document được ghi với op_type=create: nếu id đã tồn tại, request được coi là thành công
+     * và future trả về false thay vì ghi đè.
+     *
+     * @return future hoàn thành khi OpenSearch xác nhận document; true nếu document mới được tạo
+     */
+    public CompletableFuture<Boolean> add(String index, String id, JsonNode document, long sizeInBytes) {
+        PendingDocument pending = new PendingDocument(index, id, document);
+        List<PendingDocument> ready = null;
+        lock.lock();
+        try {
+            if (buffer.isEmpty()) {
+                oldestAddedAt = System.currentTimeMillis();
+            }
+            buffer.add(pending);
+            bufferBytes += sizeInBytes;
+            if (buffer.size() >= maxActions || bufferBytes >= maxBytes) {
+                ready = drain();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (ready != null) {
+            submit(ready);
+        }
+        return pending.future;
+    }
+
+    /**
+     * Gửi ngay batch hiện tại, không chờ đủ kích thước.
+     */
+    public void flush() {
+        List<PendingDocument> ready;
+        lock.lock();
+        try {
+            ready = drain();
+        } finally {
+            lock.unlock();
+        }
+        if (!ready.isEmpty()) {
+            submit(ready);
+        }
+    }
+
+    public void close() {
+        lingerScheduler.shutdown();
+        flush();
+        bulkExecutor.shutdown();
+        try {
+            if (!bulkExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                bulkExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            bulkExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushIfLingered() {
+        List<PendingDocument> ready = null;
+        lock.lock();
+        try {
+            if (!buffer.isEmpty() && System.currentTimeMillis() - oldestAddedAt >= lingerMs) {
+                ready = drain();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (ready != null) {
+            submit(ready);
+        }
+    }
+
+    private List<PendingDocument> drain() {
+        List<PendingDocument> ready = buffer;
+        buffer = new ArrayList<>();
+        bufferBytes = 0;
+        return ready;
+    }
+
+    private void submit(List<PendingDocument> batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failAll(batch, e);
+            return;
+        }
+        try {
+            bulkExecutor.execute(() -> {
+                try {
+                    execute(batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (Exception e) {
+            inFlight.release();
+            failAll(batch, e);
+        }
+    }
+
+    private void execute(List<PendingDocument> batch) {
+        List<PendingDocument> remaining = batch;
+        for (int attempt = 0; !remaining.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                sleep(retryBackoffMs << Math.min(attempt - 1, 10));
+            }
+            boolean lastAttempt = attempt >= maxRetries;
+            try {
+                remaining = send(remaining, lastAttempt);
+            } catch (Exception e) {
+                // Lỗi ở tầng transport: cả batch chưa được ghi nhận, thử lại toàn bộ
+                if (lastAttempt) {
+                    ErrorLogger.create(e).log();
+                    failAll(remaining, e);
+                    return;
+                }
+                log.warn("Bulk request of {} documents failed, retrying: {}", remaining.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gửi một request _bulk và trả về các document cần thử lại.
+     */
+    private List<PendingDocument> send(List<PendingDocument> batch, boolean lastAttempt) throws Exception {
+        List<BulkOperation> operations = new ArrayList<>(batch.size());
+        for (PendingDocument pending : batch) {
+            operations.add(BulkOperation.of(op -> op.create(c -> c
+                    .index(pending.index)
+                    .id(pending.id)
+                    .document(pending.document))));
+        }
+        BulkResponse response = client.bulk(new BulkRequest.Builder().operations(operations).build());
+
+        List<PendingDocument> retry = new ArrayList<>();
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingDocument pending = batch.get(i);
+            BulkResponseItem item = items.get(i);
+            if (item.error() == null) {
+                pending.future.complete(true);
+            } else if (item.status() == 409) {
+                // Document với id này đã được index trước đó (replay/redelivery)
+                pending.future.complete(false);
+            } else if (isRetryable(item.status()) || isBlocked(item)) {
+                if (lastAttempt) {
+                    pending.future.completeExceptionally(new IllegalStateException(item.error().reason()));
+                } else {
+                    retry.add(pending);
+                }
+            } else {
+                log.error("Document {} rejected by {}: status={}, reason={}",
+                        pending.id, pending.index, item.status(), item.error().reason());
+                pending.future.completeExceptionally(new DocumentRejectedException(item.error().reason()));
+            }
+        }
+        log.debug("Bulk request indexed {} documents in {} ms, {} to retry",
+                batch.size() - retry.size(), response.took(), retry.size());
+        return retry;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Index đang bị chặn ghi tạm thời (migrate mapping, disk flood-stage): gửi lại sau.
+     */
+    private static boolean isBlocked(BulkResponseItem item) {
+        return "cluster_block_exception".equals(item.error().type());
+    }
+
+    private static void failAll(List<PendingDocument> batch, Throwable cause) {
+        batch.forEach(pending -> pending.future.completeExceptionally(cause));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class PendingDocument {
+        private final String index;
+        private final String id;
+        private final JsonNode document;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingDocument(String index, String id, JsonNode document) {
+            this.index = index;
+            this.id = id;
+            this.document = document;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.defi.search.index;
+
+/**
+ * Document không thể index được dù gửi lại bao nhiêu lần (JSON sai, mapping bị từ chối...).
+ * Khác với lỗi tạm thời, message chứa document này có thể được ack để không bị xử lý lại mãi.
+ */
+public class DocumentRejectedException extends RuntimeException {
+    public DocumentRejectedException(String message) {
+        super(message);
+    }
+
+    public DocumentRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,421 @@
+package com.defi.search.index;
+
+import com.defi.common.util.log.ErrorLogger;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Conflicts;
+import org.opensearch.client.opensearch._types.OpType;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.mapping.DynamicMapping;
+import org.opensearch.client.opensearch._types.mapping.Property;
+import org.opensearch.client.opensearch._types.mapping.TypeMapping;
+import org.opensearch.client.opensearch.indices.SegmentSortOrder;
+import org.opensearch.client.opensearch.indices.get_mapping.IndexMappingRecord;
+import org.opensearch.client.opensearch.indices.update_aliases.Action;
+import org.opensearch.client.util.ObjectBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quản lý vòng đời các partition của event log:
+ * cài index template (mapping tường minh, gắn read alias cho mọi partition mới), tạo trước partition hiện tại và kế tiếp,
+ * chuyển write alias sang partition hiện tại và xóa cả index khi partition hết hạn lưu trữ.
+ * <p>
+ * Template chỉ áp dụng cho index tạo sau khi cài, nên khi khởi động mọi partition và legacy index đã có được
+ * kiểm tra mapping: index còn mapping động (text + .keyword) không trả lời đúng các truy vấn term và
+ * aggregation trên tên field gốc. Với migrateMappings=false, các index đó được ghi log lỗi và khởi động
+ * tiếp tục: legacy index sai mapping bị bỏ khỏi read alias và khỏi mọi truy vấn (term, aggregation và sort
+ * trên các field định danh không đúng trên mapping động) cho đến khi được migrate; partition sai mapping
+ * vẫn được truy vấn. Với migrateMappings=true, mỗi index được reindex sang index tạm (indexName_migrate-&lt;index&gt;, không khớp
+ * indexPattern), tạo lại với mapping tường minh rồi reindex ngược về, giữ nguyên tên. Index gốc bị chặn ghi
+ * trong lúc chép (BulkIndexer thử lại item bị chặn), document ghi vào index mới trong lúc chép ngược được giữ.
+ * Index tạm còn sót lại do dừng giữa chừng được hoàn tất ở lần khởi động sau.
+ * <p>
+ * legacyIndices là các index có trước khi chia partition (mặc định là index indexName cũ, ví dụ events-log);
+ * index nào đang tồn tại được gắn vào read alias và luôn nằm trong truy vấn theo khoảng thời gian. Đặt danh sách rỗng khi
+ * không còn dữ liệu cũ, hoặc sau khi đã reindex dữ liệu cũ vào các partition.
+ */
+@Slf4j
+public class IndexPartitionManager {
+    /**
+     * Tăng mỗi khi mapping hoặc settings của template thay đổi.
+     */
+    private static final long TEMPLATE_VERSION = 2;
+    private static final List<String> KEYWORD_FIELDS =
+            List.of("id", "type", "subjectType", "subjectId", "targetType", "targetId", "correlationId");
+    private static final long TASK_POLL_MILLIS = 2000;
+
+    private final OpenSearchClient client;
+    private final IndexPartitioner partitioner;
+    private final long maintenanceIntervalMinutes;
+    private final String refreshInterval;
+    private final boolean migrateMappings;
+    /**
+     * Index sai mapping chưa được migrate (migrateMappings=false).
+     */
+    private final Set<String> unmappedIndices = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    public IndexPartitionManager(OpenSearchClient client, IndexPartitioner partitioner,
+                                 long maintenanceIntervalMinutes, String refreshInterval, boolean migrateMappings) {
+        this.client = client;
+        this.partitioner = partitioner;
+        this.maintenanceIntervalMinutes = maintenanceIntervalMinutes;
+        this.refreshInterval = refreshInterval;
+        this.migrateMappings = migrateMappings;
+    }
+
+    public void start() throws IOException {
+        installTemplate();
+        resumeMigrations();
+        checkMappings();
+        attachLegacyIndices();
+        maintain();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opensearch-partition-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintain,
+                maintenanceIntervalMinutes, maintenanceIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Cài template cho mọi partition: định danh là keyword (không có bản text),
+     * createdAt là date, payload data chỉ lưu trong _source, không index.
+     * Segment được sắp theo (createdAt desc, id desc), đúng thứ tự của timeline, nên truy vấn sắp theo thứ tự đó
+     * không đếm tổng số hit dừng sớm khi đủ trang; đổi lại mỗi lần ghi segment tốn thêm chi phí sắp xếp.
+     * index.sort chỉ đặt được khi tạo index nên chỉ áp dụng cho partition tạo sau khi template được cài.
+     * Template chỉ được ghi đè khi version trên cluster thấp hơn TEMPLATE_VERSION.
+     */
+    private void installTemplate() throws IOException {
+        String name = partitioner.getIndexName();
+        Long installed = installedTemplateVersion(name);
+        if (installed != null && installed >= TEMPLATE_VERSION) {
+            log.info("Index template {} is up to date (version {})", name, installed);
+            return;
+        }
+        client.indices().putIndexTemplate(t -> t
+                .name(name)
+                .indexPatterns(partitioner.indexPattern())
+                .priority(100)
+                .version(TEMPLATE_VERSION)
+                .template(m -> m
+                        .aliases(partitioner.getReadAlias(), a -> a)
+                        .settings(st -> st
+                                .refreshInterval(r -> r.time(refreshInterval))
+                                .sort(so -> so
+                                        .field("createdAt", "id")
+                                        .order(SegmentSortOrder.Desc, SegmentSortOrder.Desc)))
+                        .mappings(IndexPartitionManager::eventMapping)));
+        log.info("Index template {} installed (version {}) for pattern {}",
+                name, TEMPLATE_VERSION, partitioner.indexPattern());
+    }
+
+    private static ObjectBuilder<TypeMapping> eventMapping(TypeMapping.Builder mapping) {
+        mapping.dynamic(DynamicMapping.False);
+        for (String field : KEYWORD_FIELDS) {
+            mapping.properties(field, p -> p.keyword(k -> k));
+        }
+        return mapping
+                .properties("createdAt", p -> p.date(d -> d.format("epoch_millis")))
+                .properties("data", p -> p.object(o -> o.enabled(false)));
+    }
+
+    private Long installedTemplateVersion(String name) throws IOException {
+        if (!client.indices().existsIndexTemplate(e -> e.name(name)).value()) {
+            return null;
+        }
+        return client.indices().getIndexTemplate(g -> g.name(name)).indexTemplates().stream()
+                .map(item -> item.indexTemplate().version())
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Tìm partition và legacy index có mapping khác template; reindex chúng nếu migrateMappings,
+     * nếu không thì ghi log và đánh dấu để legacy index không được truy vấn.
+     */
+    private void checkMappings() throws IOException {
+        List<String> mismatched = new ArrayList<>();
+        List<String> indices = new ArrayList<>(
+                client.indices().get(g -> g.index(partitioner.indexPattern())).result().keySet());
+        for (String legacy : partitioner.getLegacyIndices()) {
+            if (client.indices().exists(e -> e.index(legacy)).value()) {
+                indices.add(legacy);
+            }
+        }
+        if (indices.isEmpty()) {
+            return;
+        }
+        Map<String, IndexMappingRecord> mappings = client.indices().getMapping(g -> g.index(indices)).result();
+        for (Map.Entry<String, IndexMappingRecord> entry : mappings.entrySet()) {
+            if (!matchesTemplate(entry.getValue().mappings())) {
+                mismatched.add(entry.getKey());
+            }
+        }
+        if (mismatched.isEmpty()) {
+            return;
+        }
+        if (!migrateMappings) {
+            unmappedIndices.addAll(mismatched);
+            log.error("Indices {} were created without the event mapping (template version {}); legacy indices "
+                    + "among them are left out of searches. Set opensearch.partition.migrateMappings=true to reindex "
+                    + "them, or remove them from legacyIndices", mismatched, TEMPLATE_VERSION);
+            return;
+        }
+        for (String index : mismatched) {
+            migrate(index);
+        }
+    }
+
+    /**
+     * Index tạo từ template có dynamic=false và các field định danh là keyword.
+     */
+    private static boolean matchesTemplate(TypeMapping mapping) {
+        if (mapping == null || mapping.dynamic() != DynamicMapping.False) {
+            return false;
+        }
+        Map<String, Property> properties = mapping.properties();
+        for (String field : KEYWORD_FIELDS) {
+            Property property = properties.get(field);
+            if (property != null && !property.isKeyword()) {
+                return false;
+            }
+        }
+        Property createdAt = properties.get("createdAt");
+        return createdAt == null || createdAt.isDate();
+    }
+
+    /**
+     * Chép index sang index tạm, kiểm tra đủ số document rồi mới xóa và tạo lại với mapping tường minh.
+     */
+    private void migrate(String index) throws IOException {
+        String temporary = migrationIndex(index);
+        log.warn("Reindexing {} to apply the event mapping (via {})", index, temporary);
+        if (client.indices().exists(e -> e.index(temporary)).value()) {
+            // Lần trước dừng khi đang chép: bản tạm có thể thiếu, chép lại từ đầu
+            client.indices().delete(d -> d.index(temporary));
+        }
+        client.indices().create(c -> c.index(temporary).mappings(IndexPartitionManager::eventMapping));
+        setWriteBlock(index, true);
+        try {
+            reindex(index, temporary);
+            long source = client.count(c -> c.index(index)).count();
+            long copied = client.count(c -> c.index(temporary)).count();
+            if (copied < source) {
+                throw new IllegalStateException("Reindex of " + index + " copied " + copied + " of " + source
+                        + " documents, leaving the index unchanged");
+            }
+        } catch (IOException | RuntimeException e) {
+            setWriteBlock(index, false);
+            throw e;
+        }
+        client.indices().delete(d -> d.index(index));
+        restore(temporary, index);
+    }
+
+    private void setWriteBlock(String index, boolean blocked) throws IOException {
+        client.indices().putSettings(p -> p.index(index).settings(st -> st.blocks(b -> b.write(blocked))));
+    }
+
+    /**
+     * Hoàn tất các lần migrate đã xóa index gốc nhưng chưa chép ngược về.
+     */
+    private void resumeMigrations() throws IOException {
+        String prefix = migrationIndex("");
+        Set<String> leftovers = client.indices().get(g -> g.index(prefix + "*")).result().keySet();
+        for (String temporary : leftovers) {
+            String index = temporary.substring(prefix.length());
+            if (client.indices().exists(e -> e.index(index)).value()
+                    && !matchesTemplate(client.indices().getMapping(g -> g.index(index)).result()
+                    .get(index).mappings())) {
+                // Index gốc chưa bị xóa: checkMappings sẽ migrate lại từ đầu
+                continue;
+            }
+            log.warn("Resuming migration of {} from {}", index, temporary);
+            restore(temporary, index);
+        }
+    }
+
+    private void restore(String temporary, String index) throws IOException {
+        if (!client.indices().exists(e -> e.index(index)).value()) {
+            if (partitioner.parsePartitionStart(index) != null) {
+                // Partition: template cung cấp mapping, settings và read alias
+                client.indices().create(c -> c.index(index));
+            } else {
+                client.indices().create(c -> c.index(index)
+                        .mappings(IndexPartitionManager::eventMapping)
+                        .aliases(partitioner.getReadAlias(), a -> a));
+            }
+        }
+        // op_type=create: document đã được ghi vào index mới trong lúc migrate được giữ nguyên
+        reindex(temporary, index);
+        client.indices().delete(d -> d.index(temporary));
+        log.info("Migrated {} to the event mapping", index);
+    }
+
+    /**
+     * Reindex dạng task nền, chờ bằng cách hỏi trạng thái task để không vượt timeout của HTTP client.
+     */
+    private void reindex(String source, String destination) throws IOException {
+        String task = client.reindex(r -> r
+                .source(s -> s.index(source))
+                .dest(d -> d.index(destination).opType(OpType.Create))
+                .conflicts(Conflicts.Proceed)
+                .refresh(true)
+                .waitForCompletion(false)).task();
+        while (true) {
+            var status = client.tasks().get(g -> g.taskId(task));
+            if (status.completed()) {
+                if (status.error() != null) {
+                    throw new IllegalStateException("Reindex " + source + " -> " + destination
+                            + " failed: " + status.error().reason());
+                }
+                return;
+            }
+            try {
+                Thread.sleep(TASK_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for reindex of " + source, e);
+            }
+        }
+    }
+
+    private String migrationIndex(String index) {
+        return partitioner.getIndexName() + "_migrate-" + index;
+    }
+
+    /**
+     * Index cũ (trước khi chia partition) được gắn vào read alias để dữ liệu cũ vẫn truy vấn được.
+     */
+    private void attachLegacyIndices() {
+        for (String legacy : updateAvailableLegacyIndices()) {
+            try {
+                client.indices().putAlias(a -> a.index(legacy).name(partitioner.getReadAlias()));
+            } catch (Exception e) {
+                ErrorLogger.create(e).log();
+            }
+        }
+        // Legacy index sai mapping có thể đã được gắn ở phiên bản trước
+        for (String legacy : partitioner.getLegacyIndices()) {
+            if (!unmappedIndices.contains(legacy)) {
+                continue;
+            }
+            try {
+                if (client.indices().existsAlias(e -> e.index(legacy).name(partitioner.getReadAlias())).value()) {
+                    client.indices().deleteAlias(d -> d.index(legacy).name(partitioner.getReadAlias()));
+                }
+            } catch (Exception e) {
+                ErrorLogger.create(e).log();
+            }
+        }
+    }
+
+    /**
+     * Báo cho IndexPartitioner các legacy index đang tồn tại và có đúng mapping; index bị xóa hoặc tạo lại
+     * được nhận ra ở lần bảo trì kế tiếp.
+     */
+    private List<String> updateAvailableLegacyIndices() {
+        List<String> available = new ArrayList<>();
+        for (String legacy : partitioner.getLegacyIndices()) {
+            if (unmappedIndices.contains(legacy)) {
+                continue;
+            }
+            try {
+                if (client.indices().exists(e -> e.index(legacy)).value()) {
+                    available.add(legacy);
+                }
+            } catch (Exception e) {
+                ErrorLogger.create(e).log();
+            }
+        }
+        partitioner.setAvailableLegacyIndices(available);
+        return available;
+    }
+
+    private void maintain() {
+        try {
+            long now = System.currentTimeMillis();
+            String current = partitioner.partitionFor(now);
+            ensurePartition(current);
+            ensurePartition(partitioner.partitionFor(partitioner.partitionEnd(now)));
+            rollWriteAlias(current);
+            applyRetention(now);
+            updateAvailableLegacyIndices();
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    private void ensurePartition(String index) throws IOException {
+        if (client.indices().exists(e -> e.index(index)).value()) {
+            return;
+        }
+        try {
+            client.indices().create(c -> c.index(index));
+            log.info("Created partition {}", index);
+        } catch (OpenSearchException e) {
+            // Partition có thể vừa được tạo tự động bởi một bulk request
+            if (!"resource_already_exists_exception".equals(e.error().type())) {
+                throw e;
+            }
+        }
+    }
+
+    private void rollWriteAlias(String current) throws IOException {
+        String writeAlias = partitioner.getWriteAlias();
+        Set<String> holders = Set.of();
+        if (client.indices().existsAlias(e -> e.name(writeAlias)).value()) {
+            holders = client.indices().getAlias(a -> a.name(writeAlias)).result().keySet();
+        }
+        if (holders.size() == 1 && holders.contains(current)) {
+            return;
+        }
+
+        List<Action> actions = new ArrayList<>();
+        for (String holder : holders) {
+            if (!holder.equals(current)) {
+                actions.add(Action.of(a -> a.remove(r -> r.index(holder).alias(writeAlias))));
+            }
+        }
+        actions.add(Action.of(a -> a.add(ad -> ad.index(current).alias(writeAlias).isWriteIndex(true))));
+        client.indices().updateAliases(u -> u.actions(actions));
+        log.info("Write alias {} now points to {}", writeAlias, current);
+    }
+
+    /**
+     * Xóa nguyên index của các partition đã kết thúc trước mốc retention, không dùng delete-by-query.
+     */
+    private void applyRetention(long now) throws IOException {
+        if (partitioner.getRetentionDays() <= 0) {
+            return;
+        }
+        long cutoff = now - TimeUnit.DAYS.toMillis(partitioner.getRetentionDays());
+        Set<String> indices = client.indices().get(g -> g.index(partitioner.indexPattern())).result().keySet();
+        for (String index : indices) {
+            Long start = partitioner.parsePartitionStart(index);
+            if (start != null && partitioner.partitionEnd(start) <= cutoff) {
+                client.indices().delete(d -> d.index(index));
+                log.info("Dropped expired partition {}", index);
+            }
+        }
+    }
+}
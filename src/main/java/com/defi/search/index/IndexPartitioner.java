@@ -0,0 +1,182 @@
+package com.defi.search.index;
+
+import com.defi.search.config.SearchConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Quy tắc đặt tên index theo thời gian (createdAt, UTC) cho event log.
+ * Mỗi partition là một index {@code <indexName>-<yyyy.MM.dd>} (daily) hoặc
+ * {@code <indexName>-<yyyy.MM.dd-HH>} (hourly). Tất cả partition thuộc read alias,
+ * partition hiện tại là write index của write alias.
+ */
+public class IndexPartitioner {
+    @Getter
+    private static final IndexPartitioner instance = new IndexPartitioner();
+
+    public enum Granularity {
+        DAILY(ChronoUnit.DAYS, "yyyy.MM.dd"),
+        HOURLY(ChronoUnit.HOURS, "yyyy.MM.dd-HH");
+
+        private final ChronoUnit unit;
+        private final DateTimeFormatter formatter;
+
+        Granularity(ChronoUnit unit, String pattern) {
+            this.unit = unit;
+            this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC);
+        }
+    }
+
+    @Getter
+    private String indexName;
+    @Getter
+    private String readAlias;
+    @Getter
+    private String writeAlias;
+    @Getter
+    private Granularity granularity;
+    @Getter
+    private int retentionDays;
+    private int maxQueryPartitions;
+    @Getter
+    private final List<String> legacyIndices = new ArrayList<>();
+    /**
+     * Các legacy index đang có trên cluster, do IndexPartitionManager cập nhật khi khởi động và mỗi lần bảo trì.
+     * Chỉ chúng được đưa vào truy vấn: tạo point-in-time không hỗ trợ ignore_unavailable nên một legacy index
+     * không tồn tại (như trên mọi bản cài mới) làm hỏng cả request.
+     */
+    @Getter
+    private volatile List<String> availableLegacyIndices = List.of();
+    /**
+     * Index chứa rollup số event, tên không được khớp với indexPattern().
+     */
+    @Getter
+    private String rollupIndex;
+
+    private IndexPartitioner() {
+    }
+
+    public void init() {
+        init(SearchConfig.getInstance().getConfig().get("opensearch"));
+    }
+
+    /**
+     * @param osConfig block opensearch của search.json
+     */
+    void init(JsonNode osConfig) {
+        JsonNode partition = osConfig.path("partition");
+        this.indexName = osConfig.get("indexName").asText();
+        this.readAlias = partition.path("readAlias").asText(indexName + "-read");
+        this.writeAlias = partition.path("writeAlias").asText(indexName + "-write");
+        this.granularity = Granularity.valueOf(partition.path("granularity").asText("daily").toUpperCase());
+        this.retentionDays = partition.path("retentionDays").asInt(90);
+        this.maxQueryPartitions = partition.path("maxQueryPartitions").asInt(100);
+        this.rollupIndex = osConfig.path("rollup").path("indexName").asText(indexName + "_rollup");
+        legacyIndices.clear();
+        if (partition.has("legacyIndices")) {
+            partition.path("legacyIndices").forEach(node -> legacyIndices.add(node.asText()));
+        } else {
+            // Index duy nhất trước khi chia partition
+            legacyIndices.add(indexName);
+        }
+    }
+
+    /**
+     * Pattern khớp với mọi partition, dùng cho index template và retention.
+     */
+    public String indexPattern() {
+        return indexName + "-*";
+    }
+
+    public String partitionFor(long createdAt) {
+        return indexName + "-" + granularity.formatter.format(Instant.ofEpochMilli(createdAt));
+    }
+
+    public long partitionStart(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).truncatedTo(granularity.unit).toEpochMilli();
+    }
+
+    public long partitionEnd(long timestamp) {
+        return Instant.ofEpochMilli(partitionStart(timestamp)).plus(1, granularity.unit).toEpochMilli();
+    }
+
+    /**
+     * Lấy thời điểm bắt đầu của partition từ tên index, null nếu tên không phải partition.
+     */
+    public Long parsePartitionStart(String index) {
+        String prefix = indexName + "-";
+        if (!index.startsWith(prefix)) {
+            return null;
+        }
+        String suffix = index.substring(prefix.length());
+        try {
+            LocalDateTime time = granularity == Granularity.DAILY
+                    ? LocalDate.parse(suffix, granularity.formatter).atStartOfDay()
+                    : LocalDateTime.parse(suffix, granularity.formatter);
+            return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Danh sách index cần truy vấn cho khoảng [startTime, endTime].
+     * Với hourly, ngày được phủ trọn vẹn được gộp thành một wildcard theo ngày.
+     * Nếu khoảng thời gian không xác định hoặc trải quá nhiều partition thì dùng read alias.
+     * Request dùng danh sách này cần bật ignore_unavailable và allow_no_indices.
+     */
+    public List<String> indicesFor(Long startTime, Long endTime) {
+        List<String> indices = new ArrayList<>();
+        if (startTime == null || endTime == null || startTime > endTime) {
+            indices.add(readAlias);
+            return indices;
+        }
+
+        long cursor = partitionStart(startTime);
+        while (cursor <= endTime) {
+            long dayStart = Instant.ofEpochMilli(cursor).truncatedTo(ChronoUnit.DAYS).toEpochMilli();
+            long dayEnd = dayStart + ChronoUnit.DAYS.getDuration().toMillis();
+            if (granularity == Granularity.HOURLY && cursor == dayStart && dayEnd - 1 <= endTime) {
+                indices.add(indexName + "-" + Granularity.DAILY.formatter.format(Instant.ofEpochMilli(cursor)) + "-*");
+                cursor = dayEnd;
+            } else {
+                indices.add(partitionFor(cursor));
+                cursor = partitionEnd(cursor);
+            }
+            if (indices.size() > maxQueryPartitions) {
+                indices.clear();
+                indices.add(readAlias);
+                return indices;
+            }
+        }
+        indices.addAll(availableLegacyIndices);
+        return indices;
+    }
+
+    /**
+     * @param indices các index trong legacyIndices hiện có trên cluster
+     */
+    public void setAvailableLegacyIndices(List<String> indices) {
+        this.availableLegacyIndices = List.copyOf(indices);
+    }
+
+    /**
+     * Như {@link #indicesFor(Long, Long)} nhưng mỗi partition được viết thành wildcard,
+     * dùng cho các API không hỗ trợ ignore_unavailable như tạo point-in-time.
+     */
+    public List<String> wildcardIndicesFor(Long startTime, Long endTime) {
+        List<String> indices = indicesFor(startTime, endTime);
+        indices.replaceAll(index -> index.endsWith("*") || parsePartitionStart(index) == null ? index : index + "*");
+        return indices;
+    }
+}
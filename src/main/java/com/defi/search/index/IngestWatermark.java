@@ -0,0 +1,191 @@
+package com.defi.search.index;
+
+import com.defi.common.util.json.JsonUtil;
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.redis.Redisson;
+import com.defi.search.config.SearchConfig;
+import com.defi.search.dto.LateEvents;
+import com.defi.search.dto.StreamStats;
+import com.defi.search.listener.EventRedisListener;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.client.codec.StringCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Watermark index: mọi event có createdAt nhỏ hơn current() đã được index, trừ các event đến muộn được thông báo.
+ * <p>
+ * Giá trị lấy từ thời điểm ghi của entry cũ nhất mà consumer group chưa ack trên mọi shard (StreamTrimmer thu thập
+ * định kỳ), trừ latenessSeconds cho độ trễ từ lúc tạo event đến lúc appender ghi vào stream. Entry chỉ được ack
+ * sau khi OpenSearch xác nhận nên backlog, redelivery và XAUTOCLAIM đều giữ watermark lại. Khi chưa có số liệu
+ * của mọi shard hoặc số liệu cũ hơn staleSeconds, watermark là Long.MIN_VALUE: không khoảng nào được coi là đã đủ.
+ * <p>
+ * Event trễ hơn latenessSeconds (spill journal của appender phát lại sau khi Redis hồi phục, lệch đồng hồ) vẫn có thể
+ * được index sau khi watermark đã vượt qua. SearchIndexer báo các event mới tạo qua onIndexed; phút chứa createdAt và
+ * correlationId của event muộn được gom lại và phát qua Redis topic streamName:late để mọi instance bỏ kết quả
+ * đã cache hoặc tính lại (AggregationCache, TraceCache, RollupIndexer). Mỗi lô được giữ ít nhất noticeDelaySeconds
+ * trước khi phát để event đã hiện ra sau refresh của OpenSearch, nên noticeDelaySeconds phải lớn hơn refreshInterval.
+ */
+@Slf4j
+public class IngestWatermark {
+    @Getter
+    private static final IngestWatermark instance = new IngestWatermark();
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_CORRELATION_IDS = 1000;
+
+    private long latenessMillis;
+    private long staleMillis;
+    private volatile long current = Long.MIN_VALUE;
+    private RTopic topic;
+    private ScheduledExecutorService scheduler;
+    private final List<Consumer<LateEvents>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<LateBatch> collecting = new AtomicReference<>(new LateBatch());
+    private LateBatch ready = new LateBatch();
+
+    private IngestWatermark() {
+    }
+
+    public void init() {
+        JsonNode streamConfig = SearchConfig.getInstance().getConfig().path("event_stream");
+        JsonNode config = streamConfig.path("watermark");
+        this.latenessMillis = config.path("latenessSeconds").asLong(30) * 1000;
+        this.staleMillis = config.path("staleSeconds").asLong(300) * 1000;
+        long noticeDelayMillis = Math.max(1, config.path("noticeDelaySeconds").asLong(10)) * 1000;
+
+        this.topic = Redisson.getInstance().getClient()
+                .getTopic(streamConfig.path("streamName").asText() + ":late", StringCodec.INSTANCE);
+        topic.addListener(String.class, (channel, message) -> dispatch(message));
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingest-watermark");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, 1, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::publish, noticeDelayMillis, noticeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return mốc createdAt mà mọi event cũ hơn đã được index (trừ event muộn), Long.MIN_VALUE nếu chưa xác định
+     */
+    public long current() {
+        return current;
+    }
+
+    /**
+     * Đăng ký nhận thông báo event muộn từ mọi instance; listener chạy trên thread của Redisson.
+     */
+    public void addLateListener(Consumer<LateEvents> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Gọi sau khi OpenSearch xác nhận document mới được tạo.
+     */
+    public void onIndexed(JsonNode document) {
+        JsonNode createdAt = document.get("createdAt");
+        if (topic == null || createdAt == null || !createdAt.isNumber() || createdAt.asLong() >= current) {
+            return;
+        }
+        JsonNode correlationId = document.get("correlationId");
+        collecting.get().add(Math.floorDiv(createdAt.asLong(), MINUTE_MILLIS) * MINUTE_MILLIS,
+                correlationId != null && correlationId.isTextual() ? correlationId.asText() : null);
+    }
+
+    private void refresh() {
+        try {
+            EventRedisListener listener = EventRedisListener.getInstance();
+            List<StreamStats> stats = listener.getStreamStats();
+            long now = System.currentTimeMillis();
+            long oldest = Long.MAX_VALUE;
+            boolean known = !stats.isEmpty() && stats.size() == listener.getStreams().size();
+            for (StreamStats shard : stats) {
+                if (shard.getOldestUnackedAt() == null || now - shard.getCollectedAt() > staleMillis) {
+                    known = false;
+                    break;
+                }
+                oldest = Math.min(oldest, shard.getOldestUnackedAt());
+            }
+            current = known ? oldest - latenessMillis : Long.MIN_VALUE;
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    /**
+     * Lô đang gom được chuyển sang chờ, lô đã chờ một chu kỳ được phát: mỗi event muộn được phát
+     * sau ít nhất noticeDelaySeconds kể từ khi được index.
+     */
+    private void publish() {
+        LateBatch batch = ready;
+        ready = collecting.getAndSet(new LateBatch());
+        if (batch.minutes.isEmpty()) {
+            return;
+        }
+        LateEvents notice = new LateEvents(new ArrayList<>(batch.minutes), new ArrayList<>(batch.correlationIds),
+                batch.correlationOverflow.get());
+        try {
+            topic.publish(JsonUtil.toJsonString(notice));
+            log.info("Published late events for {} minutes, {} correlations", notice.getMinutes().size(),
+                    notice.isCorrelationOverflow() ? "all" : notice.getCorrelationIds().size());
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    private void dispatch(String message) {
+        LateEvents notice;
+        try {
+            notice = JsonUtil.fromJson(message, LateEvents.class);
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+            return;
+        }
+        for (Consumer<LateEvents> listener : listeners) {
+            try {
+                listener.accept(notice);
+            } catch (Exception e) {
+                ErrorLogger.create(e).log();
+            }
+        }
+    }
+
+    private static class LateBatch {
+        final Set<Long> minutes = ConcurrentHashMap.newKeySet();
+        final Set<String> correlationIds = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean correlationOverflow = new AtomicBoolean();
+
+        void add(long minute, String correlationId) {
+            minutes.add(minute);
+            if (correlationId == null || correlationOverflow.get()) {
+                return;
+            }
+            if (correlationIds.size() < MAX_CORRELATION_IDS) {
+                correlationIds.add(correlationId);
+            } else {
+                correlationOverflow.set(true);
+                correlationIds.clear();
+            }
+        }
+    }
+}
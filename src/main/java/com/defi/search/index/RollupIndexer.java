@@ -0,0 +1,373 @@
+package com.defi.search.index;
+
+import com.defi.common.util.json.JsonUtil;
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.search.dto.LateEvents;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.client.json.JsonData;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Script;
+import org.opensearch.client.opensearch._types.aggregations.CompositeAggregate;
+import org.opensearch.client.opensearch._types.aggregations.CompositeAggregationSource;
+import org.opensearch.client.opensearch._types.aggregations.CompositeBucket;
+import org.opensearch.client.opensearch._types.mapping.DynamicMapping;
+import org.opensearch.client.opensearch._types.query_dsl.BoolQuery;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.GetResponse;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Rollup số event theo phút và theo giờ cho các chiều type, targetId và subjectId.
+ * <p>
+ * Rollup được tính lại từ dữ liệu gốc thay vì cộng dồn theo từng event: mỗi chu kỳ, các phút đã nằm sau watermark
+ * index (IngestWatermark trừ settleSeconds cho refresh) được đếm bằng composite aggregation trên partition và ghi đè
+ * count theo id cố định của bucket; giờ đã trọn vẹn được tính tương tự. Kết quả vì vậy không phụ thuộc redelivery
+ * hay việc process dừng đột ngột. Document _meta lưu since (rollup bắt đầu từ đây) và through (rollup đầy đủ trước
+ * mốc này); lần khởi động sau tiếp tục từ through, tối đa maxBucketsPerRun bucket mỗi chu kỳ. Phần cũ hơn hạn lưu
+ * rollup phút chỉ được tính theo giờ.
+ * <p>
+ * Phút chứa event đến muộn (thông báo của IngestWatermark) được tính lại cùng giờ của nó ở chu kỳ sau, rồi thông báo
+ * được chuyển cho recompute listener để cache dựa trên rollup được làm mới. Mọi instance cùng chạy: kết quả ghi đè
+ * và through chỉ tăng nên chạy lặp không làm sai số đếm.
+ */
+@Slf4j
+public class RollupIndexer {
+    public static final List<String> DIMENSIONS = List.of("type", "targetId", "subjectId");
+    public static final String MINUTE = "minute";
+    public static final String HOUR = "hour";
+    public static final String META_ID = "_meta";
+    public static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int PAGE_SIZE = 1000;
+
+    private final OpenSearchClient client;
+    private final IndexPartitioner partitioner;
+    private final IngestWatermark watermark;
+    private final String index;
+    private final long intervalMillis;
+    private final long settleMillis;
+    private final int maxBucketsPerRun;
+    private final long minuteRetentionMillis;
+    private final long hourRetentionMillis;
+    private final List<Consumer<LateEvents>> recomputeListeners;
+
+    private final Queue<LateEvents> lateEvents = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService scheduler;
+    private long nextRetentionAt;
+
+    public RollupIndexer(OpenSearchClient client, IndexPartitioner partitioner, JsonNode config, int retentionDays,
+                         List<Consumer<LateEvents>> recomputeListeners) {
+        this.client = client;
+        this.partitioner = partitioner;
+        this.watermark = IngestWatermark.getInstance();
+        this.index = partitioner.getRollupIndex();
+        this.intervalMillis = config.path("intervalSeconds").asLong(10) * 1000;
+        this.settleMillis = config.path("settleSeconds").asLong(10) * 1000;
+        this.maxBucketsPerRun = Math.max(1, config.path("maxBucketsPerRun").asInt(60));
+        this.minuteRetentionMillis = TimeUnit.HOURS.toMillis(config.path("minuteRetentionHours").asLong(48));
+        this.hourRetentionMillis = TimeUnit.DAYS.toMillis(config.path("hourRetentionDays").asLong(retentionDays));
+        this.recomputeListeners = recomputeListeners;
+    }
+
+    public void start() throws IOException {
+        ensureIndex();
+        watermark.addLateListener(this::onLateEvents);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opensearch-rollup");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runAndMaintain, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Không có gì phải flush: phần chưa tính được tiếp tục từ through ở lần khởi động sau.
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void onLateEvents(LateEvents notice) {
+        lateEvents.add(notice);
+    }
+
+    private void runAndMaintain() {
+        try {
+            long through = advance(readThrough(), watermark.current(), System.currentTimeMillis());
+            recomputeLate(through, System.currentTimeMillis());
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextRetentionAt) {
+            nextRetentionAt = now + HOUR_MILLIS;
+            applyRetention(now);
+        }
+    }
+
+    /**
+     * Tính các bucket từ through đến watermark; through chỉ được ghi sau khi mọi bucket trước nó đã ghi xong.
+     *
+     * @param current watermark index, Long.MIN_VALUE nếu chưa xác định
+     * @return through sau chu kỳ này
+     */
+    long advance(long through, long current, long now) throws IOException {
+        if (current == Long.MIN_VALUE) {
+            return through;
+        }
+        long target = floor(Math.min(current, now) - settleMillis, MINUTE_MILLIS);
+        long minuteCutoff = now - minuteRetentionMillis;
+        long cursor = through;
+        int budget = maxBucketsPerRun;
+        while (cursor < target && budget > 0) {
+            if (cursor + HOUR_MILLIS <= minuteCutoff && cursor % HOUR_MILLIS == 0 && cursor + HOUR_MILLIS <= target) {
+                // Rollup phút của giờ này đã quá hạn lưu, chỉ cần rollup giờ
+                recompute(HOUR, cursor, HOUR_MILLIS);
+                cursor += HOUR_MILLIS;
+                budget--;
+                continue;
+            }
+            if (cursor + MINUTE_MILLIS > minuteCutoff) {
+                recompute(MINUTE, cursor, MINUTE_MILLIS);
+                budget--;
+            }
+            cursor += MINUTE_MILLIS;
+            if (cursor % HOUR_MILLIS == 0) {
+                recompute(HOUR, cursor - HOUR_MILLIS, HOUR_MILLIS);
+                budget--;
+            }
+        }
+        if (cursor > through) {
+            writeThrough(cursor);
+        }
+        return cursor;
+    }
+
+    /**
+     * Tính lại các phút đã có rollup chứa event muộn và giờ của chúng; thông báo lỗi được giữ cho chu kỳ sau.
+     */
+    void recomputeLate(long through, long now) {
+        List<LateEvents> notices = new ArrayList<>();
+        for (LateEvents notice; (notice = lateEvents.poll()) != null; ) {
+            notices.add(notice);
+        }
+        if (notices.isEmpty()) {
+            return;
+        }
+        TreeSet<Long> minutes = new TreeSet<>();
+        notices.forEach(notice -> minutes.addAll(notice.getMinutes()));
+        TreeSet<Long> hours = new TreeSet<>();
+        try {
+            for (long minute : minutes) {
+                if (minute >= through) {
+                    continue;
+                }
+                if (minute >= now - minuteRetentionMillis) {
+                    recompute(MINUTE, minute, MINUTE_MILLIS);
+                }
+                long hour = floor(minute, HOUR_MILLIS);
+                if (hour + HOUR_MILLIS <= through && hour >= now - hourRetentionMillis && hours.add(hour)) {
+                    recompute(HOUR, hour, HOUR_MILLIS);
+                }
+            }
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+            lateEvents.addAll(notices);
+            return;
+        }
+        log.info("Recomputed rollups of {} minutes with late events", minutes.headSet(through).size());
+        for (LateEvents notice : notices) {
+            recomputeListeners.forEach(listener -> listener.accept(notice));
+        }
+    }
+
+    /**
+     * Ghi đè count của mọi key trong bucket [bucket, bucket + length) cho từng chiều.
+     */
+    void recompute(String granularity, long bucket, long length) throws IOException {
+        List<String> indices = partitioner.indicesFor(bucket, bucket + length - 1);
+        for (String dimension : DIMENSIONS) {
+            Map<String, String> after = null;
+            do {
+                Map<String, String> afterKey = after;
+                SearchResponse<Void> response = client.search(s -> s
+                        .index(indices)
+                        .ignoreUnavailable(true)
+                        .allowNoIndices(true)
+                        .size(0)
+                        .query(q -> q.range(r -> r.field("createdAt")
+                                .gte(JsonData.of(bucket))
+                                .lt(JsonData.of(bucket + length))))
+                        .aggregations("keys", a -> a.composite(c -> {
+                            c.size(PAGE_SIZE).sources(Map.of("key", CompositeAggregationSource.of(cs -> cs.terms(t -> t.field(dimension)))));
+                            return afterKey == null ? c : c.after(afterKey);
+                        })), Void.class);
+                CompositeAggregate keys = response.aggregations().get("keys").composite();
+                List<CompositeBucket> buckets = keys.buckets().array();
+                List<BulkOperation> operations = new ArrayList<>(buckets.size());
+                for (CompositeBucket item : buckets) {
+                    RollupKey key = new RollupKey(dimension, granularity, bucket, item.key().get("key").to(String.class));
+                    long count = item.docCount();
+                    operations.add(BulkOperation.of(op -> op.index(i -> i
+                            .index(index)
+                            .id(key.documentId())
+                            .document(key.toDocument(count)))));
+                }
+                write(operations);
+                after = buckets.size() < PAGE_SIZE || keys.afterKey() == null ? null
+                        : keys.afterKey().entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().to(String.class)));
+            } while (after != null);
+        }
+    }
+
+    private void write(List<BulkOperation> operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+        BulkResponse response = client.bulk(b -> b.index(index).operations(operations));
+        if (response.errors()) {
+            String reason = response.items().stream()
+                    .filter(item -> item.error() != null)
+                    .map(item -> item.status() + " " + item.error().reason())
+                    .findFirst()
+                    .orElse("unknown");
+            throw new IOException("Rollup bulk write failed: " + reason);
+        }
+    }
+
+    private long readThrough() throws IOException {
+        GetResponse<ObjectNode> meta = client.get(g -> g.index(index).id(META_ID), ObjectNode.class);
+        if (!meta.found() || meta.source() == null) {
+            throw new IOException("Rollup meta document is missing in " + index);
+        }
+        // Meta tạo bởi phiên bản cộng dồn không có through: tính lại từ since
+        JsonNode through = meta.source().path("through");
+        return through.isNumber() ? through.asLong() : meta.source().path("since").asLong();
+    }
+
+    /**
+     * through chỉ tăng, kể cả khi nhiều instance cùng ghi.
+     */
+    void writeThrough(long through) throws IOException {
+        client.<ObjectNode, ObjectNode>update(u -> u
+                .index(index)
+                .id(META_ID)
+                .retryOnConflict(3)
+                .script(Script.of(s -> s.inline(i -> i
+                        .source("if (ctx._source.through == null || ctx._source.through < params.through) "
+                                + "{ ctx._source.through = params.through } else { ctx.op = 'noop' }")
+                        .params("through", JsonData.of(through))))), ObjectNode.class);
+    }
+
+    private void ensureIndex() throws IOException {
+        if (!client.indices().exists(e -> e.index(index)).value()) {
+            try {
+                client.indices().create(c -> c
+                        .index(index)
+                        .mappings(m -> m
+                                .dynamic(DynamicMapping.False)
+                                .properties("dimension", p -> p.keyword(k -> k))
+                                .properties("granularity", p -> p.keyword(k -> k))
+                                .properties("bucket", p -> p.date(d -> d.format("epoch_millis")))
+                                .properties("key", p -> p.keyword(k -> k))
+                                .properties("count", p -> p.long_(l -> l))
+                                .properties("since", p -> p.date(d -> d.format("epoch_millis")))
+                                .properties("through", p -> p.date(d -> d.format("epoch_millis")))));
+                log.info("Created rollup index {}", index);
+            } catch (OpenSearchException e) {
+                if (!"resource_already_exists_exception".equals(e.error().type())) {
+                    throw e;
+                }
+            }
+        }
+
+        // Chỉ ghi lần đầu; các lần khởi động sau tiếp tục từ through đã lưu
+        long since = floor(System.currentTimeMillis(), MINUTE_MILLIS);
+        ObjectNode meta = JsonUtil.createObjectNode();
+        meta.put("since", since);
+        meta.put("through", since);
+        try {
+            client.create(c -> c.index(index).id(META_ID).document(meta));
+            log.info("Rollups in {} start from {}", index, since);
+        } catch (OpenSearchException e) {
+            if (e.status() != 409) {
+                throw e;
+            }
+        }
+    }
+
+    private void applyRetention(long now) {
+        try {
+            client.deleteByQuery(d -> d
+                    .index(index)
+                    .query(q -> q.bool(b -> b
+                            .should(s -> s.bool(expired(MINUTE, now - minuteRetentionMillis)))
+                            .should(s -> s.bool(expired(HOUR, now - hourRetentionMillis)))
+                            .minimumShouldMatch("1"))));
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    private static BoolQuery expired(String granularity, long cutoff) {
+        return BoolQuery.of(b -> b
+                .filter(f -> f.term(t -> t.field("granularity").value(v -> v.stringValue(granularity))))
+                .filter(f -> f.range(r -> r.field("bucket").lt(JsonData.of(cutoff)))));
+    }
+
+    private static long floor(long timestamp, long unit) {
+        return Math.floorDiv(timestamp, unit) * unit;
+    }
+
+    @Value
+    private static class RollupKey {
+        String dimension;
+        String granularity;
+        long bucket;
+        String key;
+
+        String documentId() {
+            return Hashing.sha256()
+                    .hashString(dimension + "|" + granularity + "|" + bucket + "|" + key, StandardCharsets.UTF_8)
+                    .toString();
+        }
+
+        ObjectNode toDocument(long count) {
+            ObjectNode document = JsonUtil.createObjectNode();
+            document.put("dimension", dimension);
+            document.put("granularity", granularity);
+            document.put("bucket", bucket);
+            document.put("key", key);
+            document.put("count", count);
+            return document;
+        }
+    }
+}
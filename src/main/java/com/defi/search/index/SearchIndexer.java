@@ -3,8 +3,13 @@ package com.defi.search.index;
 import com.defi.common.util.json.JsonUtil;
 import com.defi.common.util.log.ErrorLogger;
 import com.defi.search.config.SearchConfig;
+import com.defi.search.dto.LateEvents;
+import com.defi.search.sketch.CardinalityTracker;
+import com.defi.search.sketch.HeavyHitterTracker;
+import com.defi.search.tail.LiveTailHub;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpHost;
@@ -14,12 +19,12 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.opensearch.client.RestClient;
 import org.opensearch.client.json.jackson.JacksonJsonpMapper;
 import org.opensearch.client.opensearch.OpenSearchClient;
-import org.opensearch.client.opensearch.core.IndexRequest;
-import org.opensearch.client.opensearch.core.IndexResponse;
 import org.opensearch.client.transport.rest_client.RestClientTransport;
 
-import java.io.StringReader;
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 @Slf4j
 public class SearchIndexer {
@@ -27,7 +32,15 @@ public class SearchIndexer {
     private static final SearchIndexer instance = new SearchIndexer();
 
     private OpenSearchClient client;
-    private String indexName;
+    private BulkIndexer bulkIndexer;
+    private IndexPartitionManager partitionManager;
+    private RollupIndexer rollupIndexer;
+    private final IndexPartitioner partitioner = IndexPartitioner.getInstance();
+    private final HeavyHitterTracker heavyHitters = HeavyHitterTracker.getInstance();
+    private final CardinalityTracker cardinality = CardinalityTracker.getInstance();
+    private final LiveTailHub liveTail = LiveTailHub.getInstance();
+    private final IngestWatermark watermark = IngestWatermark.getInstance();
+    private final List<Consumer<LateEvents>> rollupListeners = new CopyOnWriteArrayList<>();
 
     // Private constructor để đảm bảo là singleton
     private SearchIndexer() {}
@@ -44,7 +57,7 @@ public class SearchIndexer {
             String scheme = osConfig.get("scheme").asText("http");
             String username = osConfig.get("username").asText(null);
             String password = osConfig.get("password").asText(null);
-            this.indexName = osConfig.get("indexName").asText();
+            partitioner.init();
 
             // Cấu hình Credentials (nếu có)
             final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
@@ -62,7 +75,31 @@ public class SearchIndexer {
             RestClientTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
             this.client = new OpenSearchClient(transport);
 
-            log.info("OpenSearch client initialized successfully. Index target: {}", this.indexName);
+            ObjectNode bulkConfig = osConfig.has("bulk")
+                    ? (ObjectNode) osConfig.get("bulk")
+                    : JsonUtil.createObjectNode();
+            this.bulkIndexer = new BulkIndexer(client, bulkConfig);
+
+            long maintenanceInterval = osConfig.path("partition").path("maintenanceIntervalMinutes").asLong(10);
+            String refreshInterval = osConfig.path("partition").path("refreshInterval").asText("5s");
+            boolean migrateMappings = osConfig.path("partition").path("migrateMappings").asBoolean(false);
+            this.partitionManager = new IndexPartitionManager(client, partitioner, maintenanceInterval,
+                    refreshInterval, migrateMappings);
+            partitionManager.start();
+
+            JsonNode rollupConfig = osConfig.path("rollup");
+            if (rollupConfig.path("enabled").asBoolean(false)) {
+                this.rollupIndexer = new RollupIndexer(client, partitioner, rollupConfig,
+                        partitioner.getRetentionDays(), rollupListeners);
+                rollupIndexer.start();
+            }
+            heavyHitters.init();
+            cardinality.init();
+            liveTail.init();
+            watermark.init();
+
+            log.info("OpenSearch client initialized successfully. Index partitions: {} ({}), read alias: {}",
+                    partitioner.indexPattern(), partitioner.getGranularity(), partitioner.getReadAlias());
 
         } catch (Exception e) {
             log.error("Failed to initialize OpenSearch client", e);
@@ -71,36 +108,101 @@ public class SearchIndexer {
         }
     }
 
+    /**
+     * Nhận thông báo event muộn sau khi rollup của các phút đó đã được tính lại (chỉ khi rollup được bật).
+     * Phải đăng ký trước init.
+     */
+    public void addRollupListener(Consumer<LateEvents> listener) {
+        rollupListeners.add(listener);
+    }
+
     /**
      * Phương thức này được gọi bởi EventRedisListener mỗi khi có message mới.
-     * @param data Dữ liệu dạng chuỗi JSON từ Redis Stream.
+     * Document được đưa vào BulkIndexer, không gửi request riêng cho từng event.
+     * Id của document là id của EventLog nên replay hoặc redelivery không tạo bản ghi trùng.
+     * @param document Event đã được giải mã từ Redis Stream (JSON hoặc Smile, xem EventCodec).
+     * @param payload Byte của event trên stream, dùng để giới hạn kích thước bulk request và làm id dự phòng.
+     * @return future hoàn thành khi document đã được OpenSearch xác nhận; true nếu document mới được tạo
      */
-    public void onEventLog(String data) {
-        if (client == null) {
+    public CompletableFuture<Boolean> onEventLog(JsonNode document, byte[] payload) {
+        if (bulkIndexer == null) {
             log.warn("SearchIndexer is not initialized, skipping event log.");
-            return;
+            return CompletableFuture.failedFuture(new IllegalStateException("SearchIndexer is not initialized"));
         }
 
+        String index;
+        String id;
         try {
-            // Parse chuỗi JSON thành JsonNode để OpenSearch client có thể xử lý
-            JsonNode document = JsonUtil.toJsonObject(data);
-
-            // Tạo một request để index tài liệu
-            // Sử dụng StringReader để hiệu năng tốt hơn
-            IndexRequest<JsonNode> request = new IndexRequest.Builder<JsonNode>()
-                    .index(this.indexName)
-                    .id(UUID.randomUUID().toString()) // Tạo ID ngẫu nhiên cho mỗi document
-                    .document(document)
-                    .build();
+            index = targetIndex(document);
+            id = documentId(document, payload);
+        } catch (RuntimeException e) {
+            // createdAt/id không hợp lệ: gửi lại cũng không index được
+            ErrorLogger.create(e).log();
+            return CompletableFuture.failedFuture(new DocumentRejectedException("Invalid event log", e));
+        }
+        try {
+            liveTail.publish(document);
+        } catch (RuntimeException e) {
+            // Live tail chỉ là best-effort, không ảnh hưởng việc index
+            ErrorLogger.create(e).log();
+        }
 
-            // Thực thi request
-            IndexResponse response = client.index(request);
+        try {
+            CompletableFuture<Boolean> result = bulkIndexer.add(index, id, document, payload.length);
+            // Chỉ đếm event mới tạo, event bị gửi lại (409) đã được đếm ở lần đầu
+            return result.thenApply(created -> {
+                if (created) {
+                    watermark.onIndexed(document);
+                    heavyHitters.record(document);
+                    cardinality.record(document);
+                }
+                return created;
+            });
+        } catch (RuntimeException e) {
+            // Lỗi tạm thời (indexer đang dừng, bị ngắt khi chờ backpressure...): không phải DocumentRejectedException
+            // nên message được giữ lại trong pending list để xử lý lại
+            ErrorLogger.create(e).log();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-            log.info("Document indexed successfully with ID: {} and Version: {}", response.id(), response.version());
+    /**
+     * Event được ghi thẳng vào partition theo createdAt; event thiếu createdAt đi vào write alias.
+     */
+    private String targetIndex(JsonNode document) {
+        JsonNode createdAt = document.get("createdAt");
+        if (createdAt != null && createdAt.isNumber()) {
+            return partitioner.partitionFor(createdAt.asLong());
+        }
+        return partitioner.getWriteAlias();
+    }
 
-        } catch (Exception e) {
-            // Ghi log lỗi để không làm sập listener
-            ErrorLogger.create(e);
+    /**
+     * Dùng id của EventLog (UUIDv7, tăng theo thời gian); nếu thiếu thì dùng hash của payload gốc trên stream
+     * để cùng một event luôn có cùng id. Với entry JSON payload là chuỗi UTF-8 appender đã ghi, nên id trùng
+     * với id của các phiên bản trước; entry Smile được hash theo byte Smile.
+     */
+    private static String documentId(JsonNode document, byte[] payload) {
+        JsonNode id = document.get("id");
+        if (id != null && id.isTextual() && !id.asText().isBlank()) {
+            return id.asText();
+        }
+        return Hashing.sha256().hashBytes(payload).toString();
+    }
+
+    public void stop() {
+        watermark.stop();
+        if (partitionManager != null) {
+            partitionManager.stop();
+        }
+        if (bulkIndexer != null) {
+            bulkIndexer.close();
+        }
+        // Sau khi bulk indexer đóng để gửi cả các event vừa được xác nhận
+        heavyHitters.stop();
+        cardinality.stop();
+        if (rollupIndexer != null) {
+            rollupIndexer.stop();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,25 +1,58 @@
 package com.defi.search.listener;
 
 import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.log.codec.EventCodec;
+import com.defi.common.util.log.codec.EventShards;
 import com.defi.common.util.redis.Redisson;
 import com.defi.search.config.SearchConfig;
-import com.defi.search.index.SearchIndexer;
+import com.defi.search.dto.StreamStats;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RStream;
 import org.redisson.api.RedissonClient;
-import org.redisson.api.StreamMessageId;
+import org.redisson.api.StreamConsumer;
 import org.redisson.api.stream.StreamCreateGroupArgs;
-import org.redisson.api.stream.StreamReadGroupArgs;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+/**
+ * Quản lý một nhóm consumer cùng consumer group trên event stream.
+ * Mỗi consumer chạy trên một thread riêng; một scheduler dùng chung khởi động lại consumer bị dừng
+ * và dọn các consumer không còn hoạt động. Message pending của chúng được nhận lại qua XAUTOCLAIM.
+ * <p>
+ * Với shardCount = 1, consumerCount consumer cùng đọc stream streamName. Với shardCount > 1, stream được chia
+ * thành streamName:0 .. streamName:N-1 (xem EventShards) và mỗi shard chỉ có một consumer đọc trên toàn bộ
+ * các instance, phân chia bằng ShardCoordinator; thông lượng tăng theo số shard và số node Redis chứa chúng.
+ * Không chế độ nào giữ thứ tự index theo subject: mỗi consumer index nhiều entry đồng thời (maxInFlight)
+ * và BulkIndexer gửi song song, thử lại từng phần. Điều này không ảnh hưởng kết quả tìm kiếm vì truy vấn
+ * luôn sắp xếp theo createdAt và document có id cố định.
+ * <p>
+ * Khi chuyển từ shardCount = 1 sang N, stream gốc streamName vẫn có thể còn entry chưa index (hoặc còn
+ * appender chưa nâng cấp ghi vào): instance giữ shard 0 đọc thêm stream gốc bằng consumer
+ * consumerName-base cho đến khi hết. Lease và danh sách member của ShardCoordinator dùng instanceId
+ * riêng của từng tiến trình (hostname, pid và một hậu tố ngẫu nhiên), khác với tên consumer trong group.
+ * Scheduler cũng chạy StreamTrimmer cho từng shard (và stream gốc) để xóa các entry mọi group đã ack
+ * và thu thập độ dài, bộ nhớ của stream.
+ */
 @Slf4j
 @Data
 public class EventRedisListener {
@@ -34,18 +67,59 @@ public class EventRedisListener {
     private String fieldName;
     private String consumerGroup;
     private String consumerName;
+    private int consumerCount;
     private int batchSize;
     private int timeoutSeconds;
+    private int maxInFlight;
+    private long rebalanceIntervalSeconds;
+    private long staleConsumerMillis;
+    private long claimIdleMillis;
+    private long claimIntervalMillis;
+    private int shardCount;
+    private long shardLeaseMillis;
 
     private ExecutorService executorService;
+    private ScheduledExecutorService scheduler;
+    private final List<EventStreamConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final Map<Integer, EventStreamConsumer> shardConsumers = new ConcurrentHashMap<>();
     private final AtomicBoolean running = new AtomicBoolean(false);
     private RedissonClient redissonClient;
+    private final List<RStream<String, byte[]>> streams = new ArrayList<>();
+    private final List<StreamTrimmer> trimmers = new ArrayList<>();
+    private ShardCoordinator coordinator;
+    private String instanceId;
+    private RStream<String, byte[]> baseStream;
+    private EventStreamConsumer baseConsumer;
 
     private void init() {
         loadConfig();
         this.redissonClient = Redisson.getInstance().getClient();
-        this.executorService = Executors.newSingleThreadExecutor(r -> {
-            Thread t = new Thread(r, "redis-stream-listener");
+        JsonNode trimConfig = SearchConfig.getInstance().getConfig().path("event_stream").path("trim");
+        for (int shard = 0; shard < shardCount; shard++) {
+            String name = shardCount == 1 ? streamName : EventShards.streamName(streamName, shard);
+            RStream<String, byte[]> stream = redissonClient.getStream(name, EventCodec.STREAM_CODEC);
+            streams.add(stream);
+            trimmers.add(new StreamTrimmer(stream, consumerGroup, trimConfig));
+        }
+        if (shardCount > 1) {
+            // Stream gốc của chế độ không shard, đọc nốt khi vừa chuyển sang shard
+            baseStream = redissonClient.getStream(streamName, EventCodec.STREAM_CODEC);
+            streams.add(baseStream);
+            trimmers.add(new StreamTrimmer(baseStream, consumerGroup, trimConfig));
+            this.instanceId = newInstanceId();
+            log.info("Shard coordinator instance id: {}", instanceId);
+            this.coordinator = new ShardCoordinator(redissonClient, streamName, instanceId, shardCount,
+                    shardLeaseMillis);
+        }
+        int threads = shardCount == 1 ? consumerCount : shardCount + 1;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executorService = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "redis-stream-listener-" + threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "redis-stream-rebalancer");
             t.setDaemon(true);
             return t;
         });
@@ -57,85 +131,170 @@ public class EventRedisListener {
         fieldName = config.get("fieldName").asText();
         consumerGroup = config.get("consumerGroup").asText();
         consumerName = config.get("consumerName").asText();
+        consumerCount = Math.max(1, config.path("consumerCount").asInt(Runtime.getRuntime().availableProcessors()));
         batchSize = config.get("batchSize").asInt();
         timeoutSeconds = config.get("timeoutSeconds").asInt();
+        maxInFlight = Math.max(batchSize, config.path("maxInFlight").asInt(batchSize * 10));
+        rebalanceIntervalSeconds = config.path("rebalanceIntervalSeconds").asLong(30);
+        staleConsumerMillis = config.path("staleConsumerSeconds").asLong(300) * 1000;
+        claimIdleMillis = config.path("claimIdleSeconds").asLong(60) * 1000;
+        claimIntervalMillis = config.path("claimIntervalSeconds").asLong(30) * 1000;
+        shardCount = Math.max(1, config.path("shardCount").asInt(1));
+        shardLeaseMillis = config.path("shardLeaseSeconds").asLong(rebalanceIntervalSeconds * 3) * 1000;
     }
 
     public void start() {
         init();
         if (running.compareAndSet(false, true)) {
-            log.info("Starting Redis Stream listener for stream: {}", streamName);
-            executorService.submit(this::listenToStream);
+            streams.forEach(this::createConsumerGroup);
+            if (shardCount == 1) {
+                log.info("Starting {} consumers for stream: {}", consumerCount, streamName);
+                for (int i = 0; i < consumerCount; i++) {
+                    EventStreamConsumer consumer = newConsumer(streams.get(0), consumerName + "-" + i);
+                    consumers.add(consumer);
+                    executorService.submit(consumer);
+                }
+            } else {
+                log.info("Starting sharded consumers for {} shards of stream: {}", shardCount, streamName);
+            }
+            // Chế độ shard: nhận shard ngay khi khởi động
+            long initialDelay = coordinator != null ? 0 : rebalanceIntervalSeconds;
+            scheduler.scheduleWithFixedDelay(this::rebalance,
+                    initialDelay, rebalanceIntervalSeconds, TimeUnit.SECONDS);
+            long trimInterval = trimmers.get(0).getIntervalSeconds();
+            scheduler.scheduleWithFixedDelay(() -> trimmers.forEach(StreamTrimmer::run),
+                    0, trimInterval, TimeUnit.SECONDS);
         }
     }
 
-    private void listenToStream() {
-        RStream<String, String> stream = redissonClient.getStream(streamName);
-        createConsumerGroup(stream);
-
-        while (running.get()) {
-            try {
-                StreamReadGroupArgs args = StreamReadGroupArgs
-                        .greaterThan(StreamMessageId.NEVER_DELIVERED)
-                        .count(batchSize);
-                Map<StreamMessageId, Map<String, String >> messages =
-                        stream.readGroup(consumerGroup, consumerName, args);
-
-                if (messages != null && !messages.isEmpty()) {
-                    processMessages(stream, messages);
-                    stream.ack(consumerGroup, messages.keySet().toArray(new StreamMessageId[0]));
-                }
+    /**
+     * Id của tiến trình cho lease shard: consumerName giống nhau trên mọi instance nên không dùng được.
+     * Hậu tố ngẫu nhiên phân biệt các container cùng hostname và pid, và tiến trình khởi động lại.
+     */
+    private static String newInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private EventStreamConsumer newConsumer(RStream<String, byte[]> stream, String name) {
+        return new EventStreamConsumer(stream, consumerGroup, name, fieldName, batchSize, timeoutSeconds,
+                maxInFlight, claimIdleMillis, claimIntervalMillis);
+    }
 
-            } catch (Exception e) {
-                ErrorLogger.create(e).log();
-                sleep();
+    private void createConsumerGroup(RStream<String, byte[]> stream) {
+        try {
+            if (!stream.isExists() || stream.listGroups().stream().noneMatch(g -> g.getName().equals(consumerGroup))) {
+                stream.createGroup(StreamCreateGroupArgs.name(consumerGroup).makeStream());
             }
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
         }
     }
 
-    private void createConsumerGroup(RStream<String, String> stream) {
+    /**
+     * Cập nhật các shard được sở hữu (chế độ shard), khởi động lại consumer đã dừng và xóa khỏi group
+     * các consumer không còn hoạt động (không thuộc pool này, idle quá staleConsumerSeconds)
+     * khi chúng không còn message pending.
+     */
+    private void rebalance() {
+        if (!running.get()) {
+            return;
+        }
         try {
-            if (stream.listGroups().stream().noneMatch(g -> g.getName().equals(consumerGroup))) {
-                stream.createGroup(StreamCreateGroupArgs.name(consumerGroup));
+            if (coordinator != null) {
+                assignShards(coordinator.rebalance());
             }
+            for (EventStreamConsumer consumer : consumers) {
+                if (!consumer.isAlive()) {
+                    log.warn("Consumer {} is not running, restarting", consumer.getConsumerName());
+                    executorService.submit(consumer);
+                }
+            }
+            removeStaleConsumers();
         } catch (Exception e) {
             ErrorLogger.create(e).log();
         }
     }
 
-
-    private void processMessages(RStream<String, String> stream, Map<StreamMessageId, Map<String, String>> messages) {
-        messages.forEach((messageId, fields) -> {
-            try {
-                String messageContent = fields.get(fieldName);
-                if (messageContent != null) {
-                    handleMessage(messageId, messageContent);
-                    stream.ack(consumerGroup, messageId);
-                }
-            } catch (Exception e) {
-                ErrorLogger.create(e).log();
+    /**
+     * Dừng consumer của shard vừa mất và tạo consumer cho shard vừa nhận; mỗi shard một consumer.
+     * Consumer của stream gốc đi theo shard 0 để chỉ một instance đọc nó.
+     */
+    private void assignShards(Set<Integer> owned) {
+        shardConsumers.entrySet().removeIf(entry -> {
+            if (owned.contains(entry.getKey())) {
+                return false;
             }
+            entry.getValue().stop();
+            consumers.remove(entry.getValue());
+            return true;
         });
+        for (int shard : owned) {
+            shardConsumers.computeIfAbsent(shard, s -> {
+                EventStreamConsumer consumer = newConsumer(streams.get(s), consumerName + "-" + s);
+                consumers.add(consumer);
+                executorService.submit(consumer);
+                return consumer;
+            });
+        }
+        if (owned.contains(0) && baseConsumer == null) {
+            baseConsumer = newConsumer(baseStream, consumerName + "-base");
+            consumers.add(baseConsumer);
+            executorService.submit(baseConsumer);
+        } else if (!owned.contains(0) && baseConsumer != null) {
+            baseConsumer.stop();
+            consumers.remove(baseConsumer);
+            baseConsumer = null;
+        }
     }
 
-    private void handleMessage(StreamMessageId messageId, String messageContent) {
-        SearchIndexer.getInstance().onEventLog(messageContent);
+    private void removeStaleConsumers() {
+        Set<String> ownNames = consumers.stream()
+                .map(EventStreamConsumer::getConsumerName)
+                .collect(Collectors.toSet());
+        for (RStream<String, byte[]> stream : streams) {
+            if (!stream.isExists()) {
+                continue;
+            }
+            for (StreamConsumer groupConsumer : stream.listConsumers(consumerGroup)) {
+                if (ownNames.contains(groupConsumer.getName()) || groupConsumer.getIdleTime() < staleConsumerMillis) {
+                    continue;
+                }
+                // Pending của consumer này sẽ được các consumer khác nhận qua XAUTOCLAIM
+                if (groupConsumer.getPending() == 0) {
+                    stream.removeConsumer(consumerGroup, groupConsumer.getName());
+                    log.info("Removed stale consumer {} from group {} of {}", groupConsumer.getName(),
+                            consumerGroup, stream.getName());
+                }
+            }
+        }
     }
 
-    private void sleep() {
-        try {
-            Thread.sleep(5000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+    /**
+     * @return trạng thái từng shard ở lần thu thập gần nhất (shard chưa thu thập được bỏ qua)
+     */
+    public List<StreamStats> getStreamStats() {
+        return trimmers.stream()
+                .map(StreamTrimmer::getStats)
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     public void stop() {
         if (running.compareAndSet(true, false)) {
+            consumers.forEach(EventStreamConsumer::stop);
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
             if (executorService != null) {
                 executorService.shutdown();
                 try {
-                    if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
+                    if (!executorService.awaitTermination(timeoutSeconds + 5L, TimeUnit.SECONDS)) {
                         executorService.shutdownNow();
                     }
                 } catch (InterruptedException e) {
@@ -143,6 +302,13 @@ public class EventRedisListener {
                     Thread.currentThread().interrupt();
                 }
             }
+            if (coordinator != null) {
+                try {
+                    coordinator.releaseAll();
+                } catch (Exception e) {
+                    ErrorLogger.create(e).log();
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,314 @@
+package com.defi.search.listener;
+
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.log.codec.EventCodec;
+import com.defi.search.index.DocumentRejectedException;
+import com.defi.search.index.SearchIndexer;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.RStream;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamReadGroupArgs;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+/**
+ * Một consumer trong consumer group của event stream.
+ * Mỗi consumer có tên riêng, vòng đọc riêng và giới hạn số event đang xử lý (backpressure):
+ * khi đã có maxInFlight event chưa được index xong, consumer ngừng đọc thêm.
+ * <p>
+ * Message chỉ được ack sau khi bulk response xác nhận document, bằng một XACK cho cả batch.
+ * Message lỗi tạm thời được giữ lại trong pending list: khi khởi động consumer đọc lại pending
+ * của chính nó, và định kỳ dùng XAUTOCLAIM để nhận các entry đã idle quá claimIdleMillis.
+ * Entry nén chứa nhiều event chỉ được ack khi mọi event trong đó đã được xác nhận; nếu một event lỗi
+ * tạm thời thì cả entry được xử lý lại (document có id cố định nên index lại không tạo bản trùng).
+ * <p>
+ * maxInFlight được tính theo event đã giải mã, không theo entry: permit lúc đọc chỉ giới hạn số entry
+ * của một lần đọc, sau khi giải mã mỗi entry giữ một permit cho mỗi event đến khi chúng được index xong
+ * (entry lớn hơn maxInFlight event giữ toàn bộ permit). Consumer chờ permit trước khi gửi entry kế tiếp,
+ * nên một entry nén nhiều event không vượt quá giới hạn.
+ */
+@Slf4j
+public class EventStreamConsumer implements Runnable {
+    private static final StreamMessageId ZERO = new StreamMessageId(0, 0);
+
+    @Getter
+    private final String consumerName;
+    private final RStream<String, byte[]> stream;
+    private final String consumerGroup;
+    private final String fieldName;
+    private final int batchSize;
+    private final int timeoutSeconds;
+    private final long claimIdleMillis;
+    private final long claimIntervalMillis;
+    private final BiFunction<JsonNode, byte[], CompletableFuture<Boolean>> indexer;
+
+    private final Semaphore inFlight;
+    @Getter
+    private final int maxInFlight;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean alive = new AtomicBoolean(false);
+
+    private boolean ownPendingRecovered;
+    private StreamMessageId ownPendingCursor = ZERO;
+    private StreamMessageId claimCursor = ZERO;
+    private long nextClaimAt;
+
+    public EventStreamConsumer(RStream<String, byte[]> stream, String consumerGroup, String consumerName,
+                               String fieldName, int batchSize, int timeoutSeconds, int maxInFlight,
+                               long claimIdleMillis, long claimIntervalMillis) {
+        this(stream, consumerGroup, consumerName, fieldName, batchSize, timeoutSeconds, maxInFlight,
+                claimIdleMillis, claimIntervalMillis, SearchIndexer.getInstance()::onEventLog);
+    }
+
+    /**
+     * @param indexer gửi một event đi index, mặc định là SearchIndexer.onEventLog
+     */
+    EventStreamConsumer(RStream<String, byte[]> stream, String consumerGroup, String consumerName,
+                        String fieldName, int batchSize, int timeoutSeconds, int maxInFlight,
+                        long claimIdleMillis, long claimIntervalMillis,
+                        BiFunction<JsonNode, byte[], CompletableFuture<Boolean>> indexer) {
+        this.stream = stream;
+        this.consumerGroup = consumerGroup;
+        this.consumerName = consumerName;
+        this.fieldName = fieldName;
+        this.batchSize = batchSize;
+        this.timeoutSeconds = timeoutSeconds;
+        this.maxInFlight = maxInFlight;
+        this.claimIdleMillis = claimIdleMillis;
+        this.claimIntervalMillis = claimIntervalMillis;
+        this.indexer = indexer;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public void run() {
+        if (!alive.compareAndSet(false, true)) {
+            return;
+        }
+        running.set(true);
+        log.info("Consumer {} started on group {}", consumerName, consumerGroup);
+        try {
+            while (running.get()) {
+                try {
+                    pollOnce();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    ErrorLogger.create(e).log();
+                    sleep();
+                }
+            }
+        } finally {
+            alive.set(false);
+            log.info("Consumer {} stopped", consumerName);
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+    }
+
+    public boolean isAlive() {
+        return alive.get();
+    }
+
+    /**
+     * Số event đang chờ index.
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    private void pollOnce() throws InterruptedException {
+        int permits = acquirePermits();
+        if (permits == 0) {
+            return;
+        }
+        Map<StreamMessageId, Map<String, byte[]>> messages;
+        try {
+            if (!ownPendingRecovered) {
+                messages = recoverOwnPending(permits);
+            } else if (System.currentTimeMillis() >= nextClaimAt) {
+                messages = claimStale(permits);
+            } else {
+                StreamReadGroupArgs args = StreamReadGroupArgs
+                        .greaterThan(StreamMessageId.NEVER_DELIVERED)
+                        .count(permits)
+                        .timeout(Duration.ofSeconds(timeoutSeconds));
+                messages = stream.readGroup(consumerGroup, consumerName, args);
+            }
+        } finally {
+            inFlight.release(permits);
+        }
+        dispatch(messages);
+    }
+
+    /**
+     * Đọc lại các message đã được giao cho chính consumer này nhưng chưa ack (ví dụ trước khi crash).
+     */
+    private Map<StreamMessageId, Map<String, byte[]>> recoverOwnPending(int permits) {
+        StreamReadGroupArgs args = StreamReadGroupArgs.greaterThan(ownPendingCursor).count(permits);
+        Map<StreamMessageId, Map<String, byte[]>> messages = stream.readGroup(consumerGroup, consumerName, args);
+        if (messages == null || messages.isEmpty()) {
+            ownPendingRecovered = true;
+            log.info("Consumer {} finished recovering its pending entries", consumerName);
+        } else {
+            ownPendingCursor = messages.keySet().stream().reduce((first, last) -> last).orElse(ownPendingCursor);
+        }
+        return messages;
+    }
+
+    /**
+     * Nhận các entry đã idle quá lâu trong pending list của group (consumer chết, index lỗi tạm thời).
+     */
+    private Map<StreamMessageId, Map<String, byte[]>> claimStale(int permits) {
+        AutoClaimResult<String, byte[]> result = stream.autoClaim(consumerGroup, consumerName,
+                claimIdleMillis, TimeUnit.MILLISECONDS, claimCursor, permits);
+        Map<StreamMessageId, Map<String, byte[]>> messages = result.getMessages();
+        if (messages != null && !messages.isEmpty()) {
+            log.info("Consumer {} claimed {} stale pending entries", consumerName, messages.size());
+        }
+        claimCursor = result.getNextId();
+        if (claimCursor == null || ZERO.equals(claimCursor)) {
+            claimCursor = ZERO;
+            nextClaimAt = System.currentTimeMillis() + claimIntervalMillis;
+        }
+        return messages;
+    }
+
+    /**
+     * Chờ đến khi có chỗ cho ít nhất một event, lấy thêm tối đa batchSize permit nếu còn; số permit là số entry
+     * được đọc và được trả lại ngay sau khi đọc.
+     */
+    private int acquirePermits() throws InterruptedException {
+        if (!inFlight.tryAcquire(timeoutSeconds, TimeUnit.SECONDS)) {
+            return 0;
+        }
+        int extra = Math.min(batchSize - 1, inFlight.availablePermits());
+        if (extra > 0 && !inFlight.tryAcquire(extra)) {
+            extra = 0;
+        }
+        return extra + 1;
+    }
+
+    /**
+     * Gửi lần lượt các entry đi index. Nếu bị ngắt khi đang chờ permit, các entry đã gửi vẫn được ack
+     * khi xong; phần còn lại nằm trong pending list và được đọc lại ở lần khởi động sau.
+     */
+    private void dispatch(Map<StreamMessageId, Map<String, byte[]>> messages) throws InterruptedException {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        List<StreamMessageId> ids = new ArrayList<>(messages.size());
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(messages.size());
+        try {
+            for (Map.Entry<StreamMessageId, Map<String, byte[]>> message : messages.entrySet()) {
+                CompletableFuture<Boolean> result = handleMessage(message.getKey(), message.getValue());
+                ids.add(message.getKey());
+                results.add(result);
+            }
+        } finally {
+            if (!ids.isEmpty()) {
+                CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                        .whenComplete((ignored, error) -> ackConfirmed(ids, results));
+            }
+        }
+    }
+
+    /**
+     * Giải mã entry rồi chờ đủ permit cho số event của nó trước khi gửi đi index.
+     *
+     * @return future luôn hoàn thành bình thường: true nếu message có thể ack
+     */
+    private CompletableFuture<Boolean> handleMessage(StreamMessageId messageId, Map<String, byte[]> fields)
+            throws InterruptedException {
+        List<EventCodec.Decoded> events;
+        try {
+            events = fields == null ? null : EventCodec.decode(fields, fieldName);
+        } catch (IOException e) {
+            // Payload hỏng hoặc codec không hỗ trợ: gửi lại cũng không đọc được
+            log.error("Message {} could not be decoded: {}", messageId, e.getMessage());
+            return CompletableFuture.completedFuture(true);
+        }
+        if (events == null) {
+            log.warn("Message {} has no field '{}', acknowledging without indexing", messageId, fieldName);
+            return CompletableFuture.completedFuture(true);
+        }
+        if (events.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        int permits = Math.min(events.size(), maxInFlight);
+        inFlight.acquire(permits);
+        if (events.size() == 1) {
+            return index(messageId, events.get(0)).whenComplete((confirmed, error) -> inFlight.release());
+        }
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(events.size());
+        for (EventCodec.Decoded event : events) {
+            results.add(index(messageId, event));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).handle((ignored, error) -> {
+            inFlight.release(permits);
+            return results.stream().allMatch(result -> Boolean.TRUE.equals(result.getNow(false)));
+        });
+    }
+
+    /**
+     * @return future luôn hoàn thành bình thường: true nếu event đã được index hoặc bị từ chối vĩnh viễn
+     */
+    private CompletableFuture<Boolean> index(StreamMessageId messageId, EventCodec.Decoded event) {
+        return indexer.apply(event.document(), event.payload()).handle((ignored, error) -> {
+            if (error == null) {
+                return true;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (cause instanceof DocumentRejectedException) {
+                // Gửi lại cũng không thành công, ack để message không quay lại mãi
+                log.error("Message {} rejected permanently: {}", messageId, cause.getMessage());
+                return true;
+            }
+            log.warn("Message {} not indexed, leaving it pending: {}", messageId, cause.getMessage());
+            return false;
+        });
+    }
+
+    private void ackConfirmed(List<StreamMessageId> ids, List<CompletableFuture<Boolean>> results) {
+        List<StreamMessageId> confirmed = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i).getNow(false))) {
+                confirmed.add(ids.get(i));
+            }
+        }
+        if (confirmed.isEmpty()) {
+            return;
+        }
+        stream.ackAsync(consumerGroup, confirmed.toArray(new StreamMessageId[0]))
+                .whenComplete((count, error) -> {
+                    if (error != null) {
+                        ErrorLogger.create(error).log();
+                    }
+                });
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
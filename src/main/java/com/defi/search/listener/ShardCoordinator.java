@@ -0,0 +1,129 @@
+package com.defi.search.listener;
+
+import com.defi.common.util.log.codec.EventShards;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Chia các shard của event stream giữa các instance search bằng lease trên Redis: mỗi shard có key
+ * streamName:N:owner (SET NX với TTL) chứa instanceId đang sở hữu, nên tại một thời điểm chỉ một instance
+ * đọc một shard. instanceId phải khác nhau giữa các tiến trình (không dùng tên consumer trong group,
+ * vốn giống nhau trên mọi instance), nếu không các instance sẽ coi lease của nhau là của mình.
+ * <p>
+ * Các instance còn sống được ghi nhận trong sorted set streamName:members (score là lần heartbeat cuối);
+ * mỗi instance nhận tối đa ceil(shardCount / số instance) shard và trả bớt phần thừa khi có instance mới.
+ * Lease được gia hạn mỗi lần rebalance nên leaseMillis phải lớn hơn vài chu kỳ rebalance; instance chết
+ * mất shard sau khi lease hết hạn, message pending của nó được instance mới nhận qua XAUTOCLAIM.
+ * Chỉ gọi từ thread scheduler của EventRedisListener.
+ */
+@Slf4j
+public class ShardCoordinator {
+    /**
+     * Gia hạn lease nếu instance đang giữ, nhận lại nếu lease đã hết hạn; GET và PEXPIRE trong cùng một script
+     * nên không gia hạn nhầm lease mà instance khác vừa nhận.
+     */
+    private static final String RENEW_SCRIPT = """
+            local owner = redis.call('GET', KEYS[1])
+            if owner == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            if not owner then
+                redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+                return 1
+            end
+            return 0
+            """;
+    /**
+     * Chỉ xóa lease khi instance còn giữ nó.
+     */
+    private static final String RELEASE_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """;
+
+    private final String instanceId;
+    private final int shardCount;
+    private final long leaseMillis;
+    private final RScoredSortedSet<String> members;
+    private final RScript script;
+    private final List<RBucket<String>> leases = new ArrayList<>();
+    private final TreeSet<Integer> owned = new TreeSet<>();
+
+    public ShardCoordinator(RedissonClient client, String streamName, String instanceId, int shardCount,
+                            long leaseMillis) {
+        this.instanceId = instanceId;
+        this.shardCount = shardCount;
+        this.leaseMillis = leaseMillis;
+        this.members = client.getScoredSortedSet(streamName + ":members", StringCodec.INSTANCE);
+        this.script = client.getScript(StringCodec.INSTANCE);
+        for (int shard = 0; shard < shardCount; shard++) {
+            leases.add(client.getBucket(EventShards.streamName(streamName, shard) + ":owner", StringCodec.INSTANCE));
+        }
+    }
+
+    /**
+     * Gia hạn lease đang giữ, trả bớt shard thừa và nhận shard chưa có chủ.
+     *
+     * @return các shard instance này sở hữu sau lần phân chia
+     */
+    public Set<Integer> rebalance() {
+        long now = System.currentTimeMillis();
+        members.add(now, instanceId);
+        members.removeRangeByScore(0, true, now - leaseMillis, false);
+        int instances = Math.max(1, members.size());
+        int target = (shardCount + instances - 1) / instances;
+
+        owned.removeIf(shard -> {
+            boolean renewed = renew(shard);
+            if (!renewed) {
+                log.warn("Lost lease of shard {} for {}", shard, instanceId);
+            }
+            return !renewed;
+        });
+        while (owned.size() > target) {
+            release(owned.pollLast());
+        }
+        for (int shard = 0; shard < shardCount && owned.size() < target; shard++) {
+            if (!owned.contains(shard) && leases.get(shard).setIfAbsent(instanceId, Duration.ofMillis(leaseMillis))) {
+                owned.add(shard);
+                log.info("Instance {} claimed shard {}", instanceId, shard);
+            }
+        }
+        return Set.copyOf(owned);
+    }
+
+    /**
+     * Trả mọi shard và rời nhóm để instance khác nhận ngay, không phải chờ lease hết hạn.
+     */
+    public void releaseAll() {
+        while (!owned.isEmpty()) {
+            release(owned.pollFirst());
+        }
+        members.remove(instanceId);
+    }
+
+    private boolean renew(int shard) {
+        String lease = leases.get(shard).getName();
+        return script.eval(lease, RScript.Mode.READ_WRITE, RENEW_SCRIPT, RScript.ReturnType.BOOLEAN,
+                List.of(lease), instanceId, String.valueOf(leaseMillis));
+    }
+
+    private void release(int shard) {
+        String lease = leases.get(shard).getName();
+        script.eval(lease, RScript.Mode.READ_WRITE, RELEASE_SCRIPT, RScript.ReturnType.BOOLEAN,
+                List.of(lease), instanceId);
+        log.info("Instance {} released shard {}", instanceId, shard);
+    }
+}
@@ -0,0 +1,155 @@
+package com.defi.search.listener;
+
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.search.dto.StreamStats;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.PendingResult;
+import org.redisson.api.RStream;
+import org.redisson.api.StreamGroup;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamTrimArgs;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trim event stream theo tiến độ của các consumer group (XTRIM MINID): entry có id nhỏ hơn entry pending
+ * cũ nhất của mọi group (hoặc last-delivered-id khi group không còn pending) đã được ack nên có thể xóa.
+ * Entry chưa giao hoặc chưa ack không bao giờ bị trim; minRetentionSeconds giữ thêm một khoảng lịch sử
+ * gần nhất. Stream chưa có group nào thì không bị trim.
+ * <p>
+ * Với approximate, Redis chỉ xóa trọn các node của radix tree (XTRIM ~) nên rẻ hơn nhiều
+ * nhưng có thể giữ lại thêm một ít entry. Mỗi lần chạy cũng thu thập độ dài và bộ nhớ của stream,
+ * cùng thời điểm ghi (phần millisecond của id) của entry cũ nhất mà consumer group của search chưa ack,
+ * dùng làm watermark index (xem IngestWatermark).
+ */
+@Slf4j
+public class StreamTrimmer {
+    private final RStream<String, byte[]> stream;
+    private final String consumerGroup;
+    @Getter
+    private final boolean enabled;
+    @Getter
+    private final long intervalSeconds;
+    private final boolean approximate;
+    private final long minRetentionMillis;
+    private final AtomicLong trimmedEntries = new AtomicLong();
+    private volatile StreamMessageId trimMinId;
+    @Getter
+    private volatile StreamStats stats;
+
+    public StreamTrimmer(RStream<String, byte[]> stream, String consumerGroup, JsonNode config) {
+        this.stream = stream;
+        this.consumerGroup = consumerGroup;
+        this.enabled = config.path("enabled").asBoolean(true);
+        this.intervalSeconds = Math.max(1, config.path("intervalSeconds").asLong(60));
+        this.approximate = config.path("approximate").asBoolean(true);
+        this.minRetentionMillis = TimeUnit.SECONDS.toMillis(config.path("minRetentionSeconds").asLong(0));
+    }
+
+    /**
+     * Chạy định kỳ trên scheduler của EventRedisListener.
+     */
+    public void run() {
+        try {
+            if (!stream.isExists()) {
+                return;
+            }
+            List<StreamGroup> groups = stream.listGroups();
+            if (enabled) {
+                trim(groups);
+            }
+            collect(groups);
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    private void trim(List<StreamGroup> groups) {
+        StreamMessageId minId = oldestRequired(groups);
+        if (minId == null) {
+            return;
+        }
+        if (minRetentionMillis > 0) {
+            minId = min(minId, new StreamMessageId(System.currentTimeMillis() - minRetentionMillis, 0));
+        }
+        StreamTrimArgs args = StreamTrimArgs.minId(minId).noLimit();
+        long removed = approximate ? stream.trimNonStrict(args) : stream.trim(args);
+        trimMinId = minId;
+        if (removed > 0) {
+            trimmedEntries.addAndGet(removed);
+            log.debug("Trimmed {} entries below {} from {}", removed, minId, stream.getName());
+        }
+    }
+
+    /**
+     * @return id nhỏ nhất mà một group còn cần, null nếu không có group nào
+     */
+    private StreamMessageId oldestRequired(List<StreamGroup> groups) {
+        StreamMessageId oldest = null;
+        for (StreamGroup group : groups) {
+            StreamMessageId required = group.getLastDeliveredId();
+            if (group.getPending() > 0) {
+                PendingResult pending = stream.getPendingInfo(group.getName());
+                if (pending.getLowestId() != null) {
+                    required = pending.getLowestId();
+                }
+            }
+            if (required == null) {
+                return null;
+            }
+            oldest = oldest == null ? required : min(oldest, required);
+        }
+        return oldest;
+    }
+
+    private void collect(List<StreamGroup> groups) {
+        long collectedAt = System.currentTimeMillis();
+        long pending = 0;
+        long lag = 0;
+        Long oldestUnackedAt = null;
+        for (StreamGroup group : groups) {
+            pending += group.getPending();
+            lag += Math.max(0, group.getLag());
+            if (group.getName().equals(consumerGroup)) {
+                oldestUnackedAt = oldestUnackedAt(group, collectedAt);
+            }
+        }
+        StreamMessageId minId = trimMinId;
+        stats = new StreamStats(stream.getName(), stream.size(), stream.sizeInMemory(), pending, lag,
+                minId == null ? null : minId.toString(), trimmedEntries.get(), oldestUnackedAt, collectedAt);
+    }
+
+    /**
+     * Entry pending luôn cũ hơn entry chưa giao nên chỉ khi group không còn pending mới phải đọc
+     * entry đầu tiên sau last-delivered-id (lag của group không đáng tin sau khi stream bị trim).
+     *
+     * @return millisecond trong id của entry cũ nhất group chưa ack, collectedAt nếu group đã ack hết
+     */
+    private long oldestUnackedAt(StreamGroup group, long collectedAt) {
+        if (group.getPending() > 0) {
+            PendingResult pending = stream.getPendingInfo(group.getName());
+            if (pending.getLowestId() != null) {
+                return pending.getLowestId().getId0();
+            }
+        }
+        StreamMessageId delivered = group.getLastDeliveredId();
+        StreamMessageId next = delivered == null
+                ? StreamMessageId.MIN
+                : new StreamMessageId(delivered.getId0(), delivered.getId1() + 1);
+        Map<StreamMessageId, Map<String, byte[]>> undelivered = stream.range(1, next, StreamMessageId.MAX);
+        return undelivered.isEmpty() ? collectedAt : undelivered.keySet().iterator().next().getId0();
+    }
+
+    private static StreamMessageId min(StreamMessageId a, StreamMessageId b) {
+        int compare = Long.compare(a.getId0(), b.getId0());
+        if (compare == 0) {
+            compare = Long.compare(a.getId1(), b.getId1());
+        }
+        return compare <= 0 ? a : b;
+    }
+}
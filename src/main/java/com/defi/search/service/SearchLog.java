@@ -1,19 +1,44 @@
 package com.defi.search.service;
 
 import com.defi.common.util.log.entity.EventLog;
+import com.defi.search.dto.EventFilter;
+import com.defi.search.dto.EventHistogram;
+import com.defi.search.dto.EventPage;
+import com.defi.search.dto.EventQuery;
+import com.defi.search.dto.EventSummary;
+import com.defi.search.dto.EventTrace;
+import com.defi.search.dto.FacetResult;
+import com.defi.search.dto.SearchCursor;
+import com.defi.search.dto.SubjectTimeline;
 import com.defi.search.dto.TargetCount;
+import com.defi.search.dto.TimelineWatermark;
 import com.defi.search.dto.TypeCount;
 import com.defi.search.dto.UserActivityCount;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface SearchLog {
-    List<EventLog> findByDateRange(Long startTime, Long endTime);
-    List<EventLog> findUserByType(String type, Long startTime, Long endTime);
-    List<EventLog> findUserByTargetType(String targetType, Long startTime, Long endTime);
-    List<EventLog> findUserBySubjectType(String subjectType, Long startTime, Long endTime);
-    List<TargetCount> countEventsByTarget(Long startTime, Long endTime, int size);
-    List<TypeCount> countEventsByType(Long startTime, Long endTime, int size);
-    List<UserActivityCount> findTopUsersByEventCount(Long startTime, Long endTime, int size);
-    List<EventLog> findEventLogBySubjectId(String subjectId);
+    CompletableFuture<List<EventSummary>> findByDateRange(Long startTime, Long endTime);
+    CompletableFuture<EventPage<EventSummary>> findByDateRangePage(Long startTime, Long endTime, int size,
+                                                                  SearchCursor cursor);
+    CompletableFuture<EventPage<EventLog>> exportByDateRangePage(Long startTime, Long endTime, int size,
+                                                                SearchCursor cursor);
+    CompletableFuture<EventLog> findEventById(String id, Long createdAt);
+    CompletableFuture<EventTrace> findTrace(String correlationId);
+    CompletableFuture<SubjectTimeline> findSubjectTimeline(String subjectId, TimelineWatermark since, int size,
+                                                           SearchCursor cursor);
+    void closeCursor(SearchCursor cursor);
+    CompletableFuture<List<ObjectNode>> searchEvents(EventQuery query);
+    CompletableFuture<FacetResult> findFacets(EventFilter filter, Map<String, Integer> facets);
+    CompletableFuture<EventHistogram> eventHistogram(Long startTime, Long endTime, int maxPoints, int splitByTypeSize);
+    CompletableFuture<List<EventSummary>> findUserByType(String type, Long startTime, Long endTime);
+    CompletableFuture<List<EventSummary>> findUserByTargetType(String targetType, Long startTime, Long endTime);
+    CompletableFuture<List<EventSummary>> findUserBySubjectType(String subjectType, Long startTime, Long endTime);
+    CompletableFuture<List<TargetCount>> countEventsByTarget(Long startTime, Long endTime, int size);
+    CompletableFuture<List<TypeCount>> countEventsByType(Long startTime, Long endTime, int size);
+    CompletableFuture<List<UserActivityCount>> findTopUsersByEventCount(Long startTime, Long endTime, int size);
+    CompletableFuture<List<EventSummary>> findEventLogBySubjectId(String subjectId);
 }
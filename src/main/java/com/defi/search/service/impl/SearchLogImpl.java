@@ -2,11 +2,31 @@ package com.defi.search.service.impl;
 
 import com.defi.common.util.json.JsonUtil;
 import com.defi.common.util.log.entity.EventLog;
+import com.defi.search.cache.AggregationCache;
+import com.defi.search.cache.TraceCache;
 import com.defi.search.config.SearchConfig;
+import com.defi.search.dto.EventFilter;
+import com.defi.search.dto.EventHistogram;
+import com.defi.search.dto.EventPage;
+import com.defi.search.dto.EventQuery;
+import com.defi.search.dto.EventSummary;
+import com.defi.search.dto.EventTrace;
+import com.defi.search.dto.FacetBucket;
+import com.defi.search.dto.FacetResult;
+import com.defi.search.dto.FilterNode;
+import com.defi.search.dto.HistogramPoint;
+import com.defi.search.dto.SearchCursor;
+import com.defi.search.dto.SubjectTimeline;
 import com.defi.search.dto.TargetCount;
+import com.defi.search.dto.TimelineWatermark;
 import com.defi.search.dto.TypeCount;
 import com.defi.search.dto.UserActivityCount;
+import com.defi.search.index.IndexPartitioner;
+import com.defi.search.index.IngestWatermark;
+import com.defi.search.index.RollupIndexer;
+import com.defi.search.index.SearchIndexer;
 import com.defi.search.service.SearchLog;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -15,21 +35,31 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.opensearch.client.RestClient;
+import org.opensearch.client.json.JsonData;
 import org.opensearch.client.json.jackson.JacksonJsonpMapper;
 import org.opensearch.client.opensearch.OpenSearchAsyncClient;
 import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.SortOrder;
 import org.opensearch.client.opensearch._types.aggregations.Aggregate;
+import org.opensearch.client.opensearch._types.aggregations.Aggregation;
+import org.opensearch.client.opensearch._types.aggregations.FieldDateMath;
 import org.opensearch.client.opensearch._types.aggregations.TermsAggregation;
 import org.opensearch.client.opensearch._types.query_dsl.Query;
 import org.opensearch.client.opensearch.core.SearchRequest;
 import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.pit.CreatePitResponse;
 import org.opensearch.client.opensearch.core.search.Hit;
+import org.opensearch.client.opensearch.core.search.Pit;
 import org.opensearch.client.transport.rest_client.RestClientTransport;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -38,8 +68,18 @@ public class SearchLogImpl implements SearchLog {
     private SearchLogImpl() {}
     @Getter
     private static final SearchLogImpl instance = new SearchLogImpl();
+    private static final String PIT_KEEP_ALIVE = "2m";
     private OpenSearchAsyncClient asyncClient;
-    private String indexName;
+    private final IndexPartitioner partitioner = IndexPartitioner.getInstance();
+    private AggregationCache aggregationCache;
+    private TraceCache traceCache;
+    private int traceMaxEvents;
+    private long timelineSettleMillis;
+    private boolean rollupEnabled;
+    private long rollupMetaTtlMillis;
+    private long minuteRollupRetentionMillis;
+    private volatile CompletableFuture<long[]> rollupCoverage;
+    private volatile long rollupCoverageLoadedAt;
 
     public void init() {
         try {
@@ -50,7 +90,25 @@ public class SearchLogImpl implements SearchLog {
             String scheme = osConfig.get("scheme").asText("http");
             String username = osConfig.get("username").asText(null);
             String password = osConfig.get("password").asText(null);
-            this.indexName = osConfig.get("indexName").asText();
+            partitioner.init();
+            aggregationCache = new AggregationCache(SearchConfig.getInstance().getConfig().path("aggregation_cache"),
+                    IngestWatermark.getInstance()::current);
+            JsonNode traceConfig = SearchConfig.getInstance().getConfig().path("trace");
+            traceCache = new TraceCache(traceConfig, IngestWatermark.getInstance()::current);
+            IngestWatermark.getInstance().addLateListener(traceCache::invalidate);
+            traceMaxEvents = traceConfig.path("maxEvents").asInt(500);
+            timelineSettleMillis = SearchConfig.getInstance().getConfig().path("timeline")
+                    .path("settleSeconds").asLong(10) * 1000;
+            JsonNode rollupConfig = osConfig.path("rollup");
+            rollupEnabled = rollupConfig.path("enabled").asBoolean(false);
+            rollupMetaTtlMillis = rollupConfig.path("intervalSeconds").asLong(10) * 1000;
+            if (rollupEnabled) {
+                // Kết quả lấy từ rollup: chỉ bỏ cache khi rollup của phút có event muộn đã được tính lại
+                SearchIndexer.getInstance().addRollupListener(aggregationCache::invalidate);
+            } else {
+                IngestWatermark.getInstance().addLateListener(aggregationCache::invalidate);
+            }
+            minuteRollupRetentionMillis = TimeUnit.HOURS.toMillis(rollupConfig.path("minuteRetentionHours").asLong(48));
 
             final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
             if (username != null && !username.isEmpty()) {
@@ -65,13 +123,24 @@ public class SearchLogImpl implements SearchLog {
             RestClientTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
             this.asyncClient = new OpenSearchAsyncClient(transport);
 
-            log.info("OpenSearch AsyncClient initialized successfully. Index: {}", this.indexName);
+            log.info("OpenSearch AsyncClient initialized successfully. Read alias: {}", partitioner.getReadAlias());
         } catch (Exception e) {
             log.error("Failed to initialize OpenSearch AsyncClient", e);
             throw new RuntimeException("Could not initialize SearchQuerier", e);
         }
     }
 
+    /**
+     * Helper method to start a search request that only targets the partitions
+     * overlapping [startTime, endTime]. Missing partitions are ignored.
+     */
+    private SearchRequest.Builder searchIn(Long startTime, Long endTime) {
+        return new SearchRequest.Builder()
+                .index(partitioner.indicesFor(startTime, endTime))
+                .ignoreUnavailable(true)
+                .allowNoIndices(true);
+    }
+
     /**
      * Helper method to build a time range query.
      */
@@ -85,171 +154,726 @@ public class SearchLogImpl implements SearchLog {
     }
 
     /**
-     * Helper method to execute a search and map results to a list of EventLog.
+     * Helper method to execute a search and map results to a list of EventSummary.
+     * The request should only fetch EventSummary.FIELDS from _source so the data payload is never transferred.
+     * The returned future completes on the OpenSearch client I/O thread; nothing blocks the caller.
      */
-    private List<EventLog> executeSearch(SearchRequest request) {
+    private CompletableFuture<List<EventSummary>> executeSearch(SearchRequest request) {
+        return search(request, EventSummary.class)
+                .thenApply(response -> response.hits().hits().stream()
+                        .map(SearchLogImpl::source)
+                        .collect(Collectors.toList()))
+                .exceptionally(e -> {
+                    log.error("Error executing OpenSearch query", e);
+                    return Collections.emptyList();
+                });
+    }
+
+    /**
+     * Event thiếu id được index với _id là hash nội dung (xem SearchIndexer.documentId): EventSummary lấy _id
+     * của hit để event đó vẫn mở được qua findEventById.
+     */
+    private static <T> T source(Hit<T> hit) {
+        T source = hit.source();
+        if (source instanceof EventSummary summary && summary.getId() == null) {
+            summary.setId(hit.id());
+        }
+        return source;
+    }
+
+    private <T> CompletableFuture<SearchResponse<T>> search(SearchRequest request, Class<T> documentClass) {
         try {
-            // Since the client is async, we wait for the result.
-            // In a fully async application, you might want to return the CompletableFuture itself.
-            SearchResponse<EventLog> response = asyncClient.search(request, EventLog.class).get();
-            return response.hits().hits().stream()
-                    .map(Hit::source)
-                    .collect(Collectors.toList());
+            return asyncClient.search(request, documentClass);
         } catch (Exception e) {
-            log.error("Error executing OpenSearch query", e);
-            return Collections.emptyList();
+            return CompletableFuture.failedFuture(e);
         }
     }
 
     @Override
-    public List<EventLog> findByDateRange(Long startTime, Long endTime) {
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
+    public CompletableFuture<List<EventSummary>> findByDateRange(Long startTime, Long endTime) {
+        SearchRequest request = searchIn(startTime, endTime)
                 .query(buildTimeRangeQuery(startTime, endTime))
+                .source(s -> s.filter(f -> f.includes(EventSummary.FIELDS)))
                 .size(1000) // Add a reasonable size limit
                 .build();
         return executeSearch(request);
     }
 
+    /**
+     * Trang kết quả theo khoảng thời gian, sort theo (createdAt, id) trên một point-in-time.
+     * Trang đầu tạo PIT trên các partition của khoảng thời gian; các trang sau chỉ cần cursor,
+     * không có chi phí deep offset và dữ liệu không thay đổi giữa các trang.
+     * Mỗi item là EventSummary, không kèm payload data.
+     */
     @Override
-    public List<EventLog> findUserByType(String type, Long startTime, Long endTime) {
-        Query query = new Query.Builder()
-                .bool(b -> b
-                        .filter(buildTimeRangeQuery(startTime, endTime))
-                        // Use .keyword for exact matching on text fields
-                        .must(m -> m.term(t -> t.field("type.keyword").value(FieldValue.of(type))))
-                ).build();
+    public CompletableFuture<EventPage<EventSummary>> findByDateRangePage(Long startTime, Long endTime, int size,
+                                                                         SearchCursor cursor) {
+        return findPage(startTime, endTime, size, cursor, EventSummary.class, EventSummary.FIELDS);
+    }
 
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
-                .query(query)
-                .size(1000)
-                .build();
-        return executeSearch(request);
+    /**
+     * Như findByDateRangePage nhưng trả về EventLog đầy đủ, dùng cho export.
+     */
+    @Override
+    public CompletableFuture<EventPage<EventLog>> exportByDateRangePage(Long startTime, Long endTime, int size,
+                                                                       SearchCursor cursor) {
+        return findPage(startTime, endTime, size, cursor, EventLog.class, null);
+    }
+
+    private <T> CompletableFuture<EventPage<T>> findPage(Long startTime, Long endTime, int size, SearchCursor cursor,
+                                                         Class<T> itemClass, List<String> includes) {
+        if (cursor != null) {
+            return fetchPage(cursor.getPitId(), cursor.getSearchAfter(), cursor.getFromTime(), cursor.getToTime(),
+                    size, itemClass, includes);
+        }
+        return openPointInTime(startTime, endTime)
+                .thenCompose(pitId -> fetchPage(pitId, null, startTime, endTime, size, itemClass, includes));
+    }
+
+    private CompletableFuture<String> openPointInTime(Long startTime, Long endTime) {
+        try {
+            return asyncClient.createPit(c -> c
+                            .targetIndexes(partitioner.wildcardIndicesFor(startTime, endTime))
+                            .keepAlive(t -> t.time(PIT_KEEP_ALIVE)))
+                    .thenApply(CreatePitResponse::pitId);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> CompletableFuture<EventPage<T>> fetchPage(String pitId, List<String> searchAfter,
+                                                          Long startTime, Long endTime, int size,
+                                                          Class<T> itemClass, List<String> includes) {
+        SearchRequest.Builder builder = new SearchRequest.Builder()
+                .pit(Pit.of(p -> p.id(pitId).keepAlive(PIT_KEEP_ALIVE)))
+                .query(buildTimeRangeQuery(startTime, endTime))
+                .sort(s -> s.field(f -> f.field("createdAt").order(SortOrder.Asc)))
+                .sort(s -> s.field(f -> f.field("id").order(SortOrder.Asc)))
+                .trackTotalHits(t -> t.enabled(false))
+                // Lấy dư một document để biết còn trang sau hay không
+                .size(size + 1);
+        if (searchAfter != null) {
+            builder.searchAfter(searchAfter);
+        }
+        if (includes != null) {
+            builder.source(s -> s.filter(f -> f.includes(includes)));
+        }
+
+        return search(builder.build(), itemClass).thenApply(response -> {
+            List<Hit<T>> hits = response.hits().hits();
+            boolean hasMore = hits.size() > size;
+            List<Hit<T>> pageHits = hasMore ? hits.subList(0, size) : hits;
+            String nextPitId = response.pitId() != null ? response.pitId() : pitId;
+
+            String nextCursor = null;
+            if (hasMore) {
+                List<String> lastSort = pageHits.get(pageHits.size() - 1).sort();
+                nextCursor = new SearchCursor(nextPitId, lastSort, startTime, endTime, null).encode();
+            } else {
+                closePointInTime(nextPitId);
+            }
+            List<T> items = pageHits.stream().map(SearchLogImpl::source).collect(Collectors.toList());
+            return new EventPage<>(items, nextCursor, hasMore);
+        });
     }
 
+    /**
+     * Giải phóng point-in-time của một cursor khi client dừng phân trang trước trang cuối.
+     */
     @Override
-    public List<EventLog> findUserByTargetType(String targetType, Long startTime, Long endTime) {
-        Query query = new Query.Builder()
-                .bool(b -> b
-                        .filter(buildTimeRangeQuery(startTime, endTime))
-                        .must(m -> m.term(t -> t.field("targetType.keyword").value(FieldValue.of(targetType))))
-                ).build();
+    public void closeCursor(SearchCursor cursor) {
+        if (cursor != null && cursor.getPitId() != null) {
+            closePointInTime(cursor.getPitId());
+        }
+    }
 
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
-                .query(query)
-                .size(1000)
-                .build();
-        return executeSearch(request);
+    private void closePointInTime(String pitId) {
+        try {
+            asyncClient.deletePit(d -> d.pitId(List.of(pitId)))
+                    .exceptionally(e -> {
+                        log.warn("Could not delete point-in-time: {}", e.getMessage());
+                        return null;
+                    });
+        } catch (Exception e) {
+            log.warn("Could not delete point-in-time: {}", e.getMessage());
+        }
     }
 
+    /**
+     * Nhiều terms aggregation anh em trên cùng một tập event đã lọc, trong một request:
+     * cluster chỉ lọc một lần cho mọi facet. facets là field -> số bucket.
+     */
     @Override
-    public List<EventLog> findUserBySubjectType(String subjectType, Long startTime, Long endTime) {
-        Query query = new Query.Builder()
-                .bool(b -> b
-                        .filter(buildTimeRangeQuery(startTime, endTime))
-                        .must(m -> m.term(t -> t.field("subjectType.keyword").value(FieldValue.of(subjectType))))
-                ).build();
+    public CompletableFuture<FacetResult> findFacets(EventFilter filter, Map<String, Integer> facets) {
+        SearchRequest.Builder builder = searchIn(filter.getFromTime(), filter.getToTime())
+                .query(buildFilterQuery(filter))
+                .size(0)
+                .trackTotalHits(t -> t.enabled(true));
+        facets.forEach((field, size) ->
+                builder.aggregations(field, agg -> agg.terms(t -> t.field(field).size(size))));
+
+        return search(builder.build(), Void.class).thenApply(response -> {
+            Map<String, List<FacetBucket>> results = new LinkedHashMap<>();
+            facets.keySet().forEach(field -> results.put(field,
+                    response.aggregations().get(field).sterms().buckets().array().stream()
+                            .map(bucket -> new FacetBucket(bucket.key(), bucket.docCount()))
+                            .collect(Collectors.toList())));
+            long total = response.hits().total() != null ? response.hits().total().value() : 0;
+            return new FacetResult(total, results);
+        });
+    }
 
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
-                .query(query)
-                .size(1000)
-                .build();
-        return executeSearch(request);
+    private Query buildFilterQuery(EventFilter filter) {
+        List<FilterNode> terms = new ArrayList<>();
+        addTerm(terms, "type", filter.getType());
+        addTerm(terms, "targetType", filter.getTargetType());
+        addTerm(terms, "subjectType", filter.getSubjectType());
+        addTerm(terms, "subjectId", filter.getSubjectId());
+        FilterNode node = terms.isEmpty() ? null : FilterNode.and(terms.toArray(new FilterNode[0]));
+        return buildQuery(node, filter.getFromTime(), filter.getToTime());
     }
 
-    private <T> List<T> executeAggregation(SearchRequest request, String aggName, AggregationResultParser<T> parser) {
-        try {
-            CompletableFuture<SearchResponse<Void>> future = asyncClient.search(request, Void.class);
-            SearchResponse<Void> response = future.get();
+    private static void addTerm(List<FilterNode> terms, String field, String value) {
+        if (value != null) {
+            terms.add(FilterNode.term(field, value));
+        }
+    }
 
-            Aggregate aggregate = response.aggregations().get(aggName);
-            List<T> results = new ArrayList<>();
-            aggregate.sterms().buckets().array().forEach(bucket -> {
-                results.add(parser.parse(bucket));
-            });
-            return results;
-        } catch (Exception e) {
-            log.error("Error executing OpenSearch aggregation for '{}'", aggName, e);
-            return Collections.emptyList();
+    /**
+     * Event thỏa cây điều kiện lọc, sắp xếp và chỉ trả về các field được yêu cầu.
+     */
+    @Override
+    public CompletableFuture<List<ObjectNode>> searchEvents(EventQuery query) {
+        return search(buildSearch(query).build(), ObjectNode.class)
+                .thenApply(response -> response.hits().hits().stream()
+                        .map(Hit::source)
+                        .collect(Collectors.toList()));
+    }
+
+    private SearchRequest.Builder buildSearch(EventQuery query) {
+        SearchRequest.Builder builder = searchIn(query.getFromTime(), query.getToTime())
+                .query(buildQuery(query.getFilter(), query.getFromTime(), query.getToTime()))
+                .size(query.getSize());
+        if (query.getSort() != null) {
+            for (EventQuery.SortField sort : query.getSort()) {
+                builder.sort(s -> s.field(f -> f
+                        .field(sort.getField())
+                        .order(sort.isDescending() ? SortOrder.Desc : SortOrder.Asc)));
+            }
+        }
+        boolean hasIncludes = query.getFields() != null && !query.getFields().isEmpty();
+        boolean hasExcludes = query.getExcludes() != null && !query.getExcludes().isEmpty();
+        if (hasIncludes || hasExcludes) {
+            builder.source(s -> s.filter(f -> {
+                if (hasIncludes) {
+                    f.includes(query.getFields());
+                }
+                if (hasExcludes) {
+                    f.excludes(query.getExcludes());
+                }
+                return f;
+            }));
         }
+        return builder;
     }
 
-    @FunctionalInterface
-    interface AggregationResultParser<T> {
-        T parse(org.opensearch.client.opensearch._types.aggregations.StringTermsBucket bucket);
+    /**
+     * Ghép khoảng thời gian và cây điều kiện thành một bool query chỉ có mệnh đề filter:
+     * không tính điểm và được OpenSearch cache theo từng segment.
+     */
+    private Query buildQuery(FilterNode filter, Long startTime, Long endTime) {
+        return new Query.Builder().bool(b -> {
+            if (startTime != null || endTime != null) {
+                b.filter(f -> f.range(r -> {
+                    r.field("createdAt");
+                    if (startTime != null) {
+                        r.gte(JsonData.of(startTime));
+                    }
+                    if (endTime != null) {
+                        r.lte(JsonData.of(endTime));
+                    }
+                    return r;
+                }));
+            }
+            if (filter != null) {
+                b.filter(compileFilter(filter));
+            }
+            return b;
+        }).build();
+    }
+
+    static Query compileFilter(FilterNode node) {
+        return switch (node.getOp()) {
+            case TERM -> node.getValues().size() == 1
+                    ? Query.of(q -> q.term(t -> t.field(node.getField()).value(FieldValue.of(node.getValues().get(0)))))
+                    : Query.of(q -> q.terms(t -> t.field(node.getField()).terms(v -> v.value(
+                            node.getValues().stream().map(FieldValue::of).collect(Collectors.toList())))));
+            case AND -> Query.of(q -> q.bool(b -> b.filter(compileChildren(node))));
+            // should trong filter context: đủ một mệnh đề là khớp, vẫn không tính điểm
+            case OR -> Query.of(q -> q.bool(b -> b.should(compileChildren(node)).minimumShouldMatch("1")));
+            case NOT -> Query.of(q -> q.bool(b -> b.mustNot(compileChildren(node))));
+        };
     }
 
+    private static List<Query> compileChildren(FilterNode node) {
+        return node.getChildren().stream().map(SearchLogImpl::compileFilter).collect(Collectors.toList());
+    }
+
+    /**
+     * Các interval có thể chọn cho histogram, tăng dần.
+     */
+    private static final String[] HISTOGRAM_INTERVALS = {
+            "1s", "5s", "10s", "30s", "1m", "5m", "10m", "15m", "30m",
+            "1h", "3h", "6h", "12h", "1d", "7d", "30d"
+    };
+
+    /**
+     * Số event theo interval trong khoảng thời gian. Interval là mức nhỏ nhất trong HISTOGRAM_INTERVALS
+     * sao cho chuỗi có không quá maxPoints điểm, đếm theo bucket căn theo epoch như date_histogram
+     * (khoảng thời gian lệch biên có thể chạm thêm một bucket); khoảng dài hơn mức 30d cho phép thì dùng
+     * interval bội số ngày đủ lớn. Chỉ các partition giao với khoảng thời gian được truy vấn.
+     * splitByTypeSize > 0 thì mỗi điểm được tách thêm theo top splitByTypeSize type.
+     */
     @Override
-    public List<TargetCount> countEventsByTarget(Long startTime, Long endTime, int size) {
-        String aggName = "group_by_target";
-        TermsAggregation aggregation = new TermsAggregation.Builder()
-                .field("targetId.keyword")
-                .size(size)
-                .build();
+    public CompletableFuture<EventHistogram> eventHistogram(Long startTime, Long endTime, int maxPoints,
+                                                            int splitByTypeSize) {
+        String fixedInterval = histogramInterval(startTime, endTime, maxPoints);
+        String aggName = "histogram";
 
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
+        SearchRequest request = searchIn(startTime, endTime)
                 .query(buildTimeRangeQuery(startTime, endTime))
-                .size(0) // We don't need the documents, just the aggregation results
-                .aggregations(aggName, agg -> agg.terms(aggregation))
+                .size(0)
+                .aggregations(aggName, agg -> {
+                    Aggregation.Builder.ContainerBuilder histogram = agg.dateHistogram(h -> h
+                            .field("createdAt")
+                            .fixedInterval(t -> t.time(fixedInterval))
+                            .minDocCount(0)
+                            .extendedBounds(b -> b
+                                    .min(FieldDateMath.of(f -> f.value((double) startTime)))
+                                    .max(FieldDateMath.of(f -> f.value((double) endTime)))));
+                    if (splitByTypeSize > 0) {
+                        histogram.aggregations("by_type", sub -> sub.terms(t -> t.field("type").size(splitByTypeSize)));
+                    }
+                    return histogram;
+                })
                 .build();
 
-        return executeAggregation(request, aggName, bucket ->
-                new TargetCount(bucket.key(), bucket.docCount()));
+        return search(request, Void.class).thenApply(response -> {
+            List<HistogramPoint> points = new ArrayList<>();
+            response.aggregations().get(aggName).dateHistogram().buckets().array().forEach(bucket -> {
+                Map<String, Long> byType = null;
+                if (splitByTypeSize > 0) {
+                    byType = new LinkedHashMap<>();
+                    for (var typeBucket : bucket.aggregations().get("by_type").sterms().buckets().array()) {
+                        byType.put(typeBucket.key(), typeBucket.docCount());
+                    }
+                }
+                points.add(new HistogramPoint(Long.parseLong(bucket.key()), bucket.docCount(), byType));
+            });
+            return new EventHistogram(intervalMillis(fixedInterval), fixedInterval, points);
+        }).exceptionally(e -> {
+            log.error("Error executing OpenSearch histogram", e);
+            return new EventHistogram(intervalMillis(fixedInterval), fixedInterval, Collections.emptyList());
+        });
+    }
+
+    private static String histogramInterval(long startTime, long endTime, int maxPoints) {
+        for (String candidate : HISTOGRAM_INTERVALS) {
+            if (alignedBuckets(startTime, endTime, intervalMillis(candidate)) <= maxPoints) {
+                return candidate;
+            }
+        }
+        long dayMillis = TimeUnit.DAYS.toMillis(1);
+        long days = Math.max(intervalMillis(HISTOGRAM_INTERVALS[HISTOGRAM_INTERVALS.length - 1]) / dayMillis,
+                (endTime - startTime) / dayMillis / maxPoints);
+        while (alignedBuckets(startTime, endTime, days * dayMillis) > maxPoints) {
+            days++;
+        }
+        return days + "d";
+    }
+
+    /**
+     * Số bucket date_histogram (fixed_interval, căn theo epoch) phủ [startTime, endTime].
+     */
+    private static long alignedBuckets(long startTime, long endTime, long intervalMillis) {
+        return Math.floorDiv(endTime, intervalMillis) - Math.floorDiv(startTime, intervalMillis) + 1;
+    }
+
+    private static long intervalMillis(String interval) {
+        long value = Long.parseLong(interval.substring(0, interval.length() - 1));
+        return switch (interval.charAt(interval.length() - 1)) {
+            case 's' -> TimeUnit.SECONDS.toMillis(value);
+            case 'm' -> TimeUnit.MINUTES.toMillis(value);
+            case 'h' -> TimeUnit.HOURS.toMillis(value);
+            default -> TimeUnit.DAYS.toMillis(value);
+        };
+    }
+
+    @Override
+    public CompletableFuture<List<EventSummary>> findUserByType(String type, Long startTime, Long endTime) {
+        return executeSearch(buildSearch(EventQuery.builder()
+                .filter(FilterNode.term("type", type))
+                .fromTime(startTime)
+                .toTime(endTime)
+                .fields(EventSummary.FIELDS)
+                .size(1000)
+                .build()).build());
     }
 
     @Override
-    public List<TypeCount> countEventsByType(Long startTime, Long endTime, int size) {
-        String aggName = "group_by_type";
+    public CompletableFuture<List<EventSummary>> findUserByTargetType(String targetType, Long startTime, Long endTime) {
+        return executeSearch(buildSearch(EventQuery.builder()
+                .filter(FilterNode.term("targetType", targetType))
+                .fromTime(startTime)
+                .toTime(endTime)
+                .fields(EventSummary.FIELDS)
+                .size(1000)
+                .build()).build());
+    }
+
+    @Override
+    public CompletableFuture<List<EventSummary>> findUserBySubjectType(String subjectType, Long startTime, Long endTime) {
+        return executeSearch(buildSearch(EventQuery.builder()
+                .filter(FilterNode.term("subjectType", subjectType))
+                .fromTime(startTime)
+                .toTime(endTime)
+                .fields(EventSummary.FIELDS)
+                .size(1000)
+                .build()).build());
+    }
+
+    /**
+     * Đếm số event theo field trong khoảng thời gian, qua cache kết quả aggregation.
+     */
+    private <T> CompletableFuture<List<T>> countTerms(String field, Long startTime, Long endTime, int size,
+                                                      TermCountMapper<T> mapper) {
+        AggregationCache.TermsLoader loader = rollupEnabled ? this::countFromRollups : this::executeAggregation;
+        return aggregationCache.topTerms(field, startTime, endTime, size, loader)
+                .thenApply(counts -> counts.stream()
+                        .map(entry -> mapper.map(entry.getKey(), entry.getValue()))
+                        .collect(Collectors.toList()))
+                .exceptionally(e -> {
+                    log.error("Error executing OpenSearch aggregation on '{}'", field, e);
+                    return Collections.emptyList();
+                });
+    }
+
+    /**
+     * Terms aggregation trên field, trả về số event theo key (giảm dần).
+     * Lỗi được trả nguyên cho caller để kết quả lỗi không bị cache.
+     */
+    private CompletableFuture<Map<String, Long>> executeAggregation(String field, long startTime, long endTime,
+                                                                    int size) {
+        String aggName = "group_by_" + field;
         TermsAggregation aggregation = new TermsAggregation.Builder()
-                .field("type.keyword")
+                .field(field)
                 .size(size)
                 .build();
 
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
+        SearchRequest request = searchIn(startTime, endTime)
                 .query(buildTimeRangeQuery(startTime, endTime))
-                .size(0)
+                .size(0) // We don't need the documents, just the aggregation results
                 .aggregations(aggName, agg -> agg.terms(aggregation))
                 .build();
 
-        return executeAggregation(request, aggName, bucket ->
-                new TypeCount(bucket.key(), bucket.docCount()));
+        return search(request, Void.class).thenApply(response -> {
+            Aggregate aggregate = response.aggregations().get(aggName);
+            Map<String, Long> results = new LinkedHashMap<>();
+            aggregate.sterms().buckets().array().forEach(bucket -> results.put(bucket.key(), bucket.docCount()));
+            return results;
+        });
     }
 
-    @Override
-    public List<UserActivityCount> findTopUsersByEventCount(Long startTime, Long endTime, int size) {
-        String aggName = "top_users";
-        TermsAggregation aggregation = new TermsAggregation.Builder()
-                .field("subjectId.keyword")
-                .size(size)
-                .build();
+    /**
+     * Số event theo field lấy từ rollup: phần giờ trọn vẹn dùng rollup giờ, phần phút ở hai đầu dùng rollup phút,
+     * chỉ các mép lẻ (dưới một phút, trước since hoặc từ through của rollup trở đi) mới truy vấn dữ liệu gốc.
+     * Chi phí gần như không phụ thuộc độ dài khoảng thời gian.
+     */
+    private CompletableFuture<Map<String, Long>> countFromRollups(String field, long startTime, long endTime,
+                                                                  int size) {
+        return rollupCoverage().thenCompose(coverage -> {
+            if (coverage == null) {
+                return executeAggregation(field, startTime, endTime, size);
+            }
+            long now = System.currentTimeMillis();
+            long minute = RollupIndexer.MINUTE_MILLIS;
+            long hour = RollupIndexer.HOUR_MILLIS;
+            long coverFrom = ceil(Math.max(startTime, coverage[0]), minute);
+            long coverTo = floor(Math.min(endTime + 1, coverage[1]), minute);
+            if (coverFrom >= coverTo) {
+                return executeAggregation(field, startTime, endTime, size);
+            }
+
+            List<CompletableFuture<Map<String, Long>>> parts = new ArrayList<>();
+            long hourFrom = ceil(coverFrom, hour);
+            long hourTo = floor(coverTo, hour);
+            if (hourFrom < hourTo) {
+                parts.add(executeRollupAggregation(field, RollupIndexer.HOUR, hourFrom, hourTo, size));
+                addMinuteSpan(parts, field, coverFrom, hourFrom, size, now);
+                addMinuteSpan(parts, field, hourTo, coverTo, size, now);
+            } else {
+                addMinuteSpan(parts, field, coverFrom, coverTo, size, now);
+            }
+            if (startTime < coverFrom) {
+                parts.add(executeAggregation(field, startTime, coverFrom - 1, size));
+            }
+            if (coverTo <= endTime) {
+                parts.add(executeAggregation(field, coverTo, endTime, size));
+            }
+            return mergeCounts(parts, size);
+        });
+    }
+
+    /**
+     * Khoảng [from, to) căn theo phút; rollup phút đã quá hạn lưu thì đọc dữ liệu gốc.
+     */
+    private void addMinuteSpan(List<CompletableFuture<Map<String, Long>>> parts, String field,
+                               long from, long to, int size, long now) {
+        if (from >= to) {
+            return;
+        }
+        if (from >= now - minuteRollupRetentionMillis) {
+            parts.add(executeRollupAggregation(field, RollupIndexer.MINUTE, from, to, size));
+        } else {
+            parts.add(executeAggregation(field, from, to - 1, size));
+        }
+    }
 
+    private CompletableFuture<Map<String, Long>> executeRollupAggregation(String field, String granularity,
+                                                                          long from, long to, int size) {
         SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
-                .query(buildTimeRangeQuery(startTime, endTime))
+                .index(partitioner.getRollupIndex())
                 .size(0)
-                .aggregations(aggName, agg -> agg.terms(aggregation))
+                .query(q -> q.bool(b -> b
+                        .filter(f -> f.term(t -> t.field("dimension").value(FieldValue.of(field))))
+                        .filter(f -> f.term(t -> t.field("granularity").value(FieldValue.of(granularity))))
+                        .filter(f -> f.range(r -> r.field("bucket").gte(JsonData.of(from)).lt(JsonData.of(to))))))
+                .aggregations("by_key", a -> a
+                        .terms(t -> t.field("key").size(size).order(Map.of("total", SortOrder.Desc)))
+                        .aggregations("total", sum -> sum.sum(m -> m.field("count"))))
                 .build();
 
-        return executeAggregation(request, aggName, bucket ->
-                new UserActivityCount(bucket.key(), bucket.docCount()));
+        return search(request, Void.class).thenApply(response -> {
+            Map<String, Long> results = new LinkedHashMap<>();
+            response.aggregations().get("by_key").sterms().buckets().array().forEach(bucket ->
+                    results.put(bucket.key(), (long) bucket.aggregations().get("total").sum().value()));
+            return results;
+        });
+    }
+
+    /**
+     * Khoảng [since, through) rollup đã đầy đủ, đọc từ document _meta và giữ trong intervalSeconds
+     * (chu kỳ RollupIndexer đẩy through); null nếu chưa có rollup hoặc meta cũ chưa có through.
+     */
+    private CompletableFuture<long[]> rollupCoverage() {
+        CompletableFuture<long[]> current = rollupCoverage;
+        if (current != null && System.currentTimeMillis() - rollupCoverageLoadedAt < rollupMetaTtlMillis) {
+            return current;
+        }
+        CompletableFuture<long[]> loaded;
+        try {
+            loaded = asyncClient.get(g -> g.index(partitioner.getRollupIndex()).id(RollupIndexer.META_ID),
+                            ObjectNode.class)
+                    .thenApply(response -> {
+                        if (!response.found() || response.source() == null
+                                || !response.source().path("through").isNumber()) {
+                            return null;
+                        }
+                        return new long[]{response.source().path("since").asLong(),
+                                response.source().path("through").asLong()};
+                    });
+        } catch (Exception e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<long[]> result = loaded.handle((coverage, error) -> error != null ? null : coverage);
+        rollupCoverage = result;
+        rollupCoverageLoadedAt = System.currentTimeMillis();
+        result.thenAccept(coverage -> {
+            if (coverage == null) {
+                // Chưa đọc được: lần sau đọc lại, lần này dùng dữ liệu gốc
+                rollupCoverage = null;
+            }
+        });
+        return result;
+    }
+
+    private static CompletableFuture<Map<String, Long>> mergeCounts(List<CompletableFuture<Map<String, Long>>> parts,
+                                                                    int size) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            Map<String, Long> merged = new HashMap<>();
+            parts.forEach(part -> part.join().forEach((key, count) -> merged.merge(key, count, Long::sum)));
+            Map<String, Long> results = new LinkedHashMap<>();
+            merged.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(size)
+                    .forEach(entry -> results.put(entry.getKey(), entry.getValue()));
+            return results;
+        });
+    }
+
+    private static long floor(long timestamp, long unit) {
+        return Math.floorDiv(timestamp, unit) * unit;
+    }
+
+    private static long ceil(long timestamp, long unit) {
+        return -Math.floorDiv(-timestamp, unit) * unit;
+    }
+
+    @FunctionalInterface
+    interface TermCountMapper<T> {
+        T map(String key, long docCount);
+    }
+
+    @Override
+    public CompletableFuture<List<TargetCount>> countEventsByTarget(Long startTime, Long endTime, int size) {
+        return countTerms("targetId", startTime, endTime, size, TargetCount::new);
+    }
+
+    @Override
+    public CompletableFuture<List<TypeCount>> countEventsByType(Long startTime, Long endTime, int size) {
+        return countTerms("type", startTime, endTime, size, TypeCount::new);
+    }
+
+    @Override
+    public CompletableFuture<List<UserActivityCount>> findTopUsersByEventCount(Long startTime, Long endTime, int size) {
+        return countTerms("subjectId", startTime, endTime, size, UserActivityCount::new);
+    }
+
+    /**
+     * Toàn bộ event của một correlationId theo thứ tự createdAt. Trace thường chỉ vài chục event nên đi theo
+     * đường truy vấn nhỏ: một term filter trên keyword correlationId, không đếm tổng số hit,
+     * chỉ lấy field của EventSummary và tối đa traceMaxEvents + 1 document để biết trace có bị cắt hay không.
+     * Trace đã kết thúc được cache theo correlationId.
+     */
+    @Override
+    public CompletableFuture<EventTrace> findTrace(String correlationId) {
+        return traceCache.get(correlationId, () -> {
+            SearchRequest request = searchIn(null, null)
+                    .query(q -> q.bool(b -> b.filter(f -> f.term(t -> t
+                            .field("correlationId")
+                            .value(FieldValue.of(correlationId))))))
+                    .sort(s -> s.field(f -> f.field("createdAt").order(SortOrder.Asc)))
+                    .sort(s -> s.field(f -> f.field("id").order(SortOrder.Asc)))
+                    .source(s -> s.filter(f -> f.includes(EventSummary.FIELDS)))
+                    .trackTotalHits(t -> t.enabled(false))
+                    .size(traceMaxEvents + 1)
+                    .build();
+            return search(request, EventSummary.class).thenApply(response -> {
+                List<EventSummary> events = response.hits().hits().stream()
+                        .map(SearchLogImpl::source)
+                        .collect(Collectors.toList());
+                boolean truncated = events.size() > traceMaxEvents;
+                if (truncated) {
+                    events = events.subList(0, traceMaxEvents);
+                }
+                Long startTime = events.isEmpty() ? null : events.get(0).getCreatedAt();
+                Long endTime = events.isEmpty() ? null : events.get(events.size() - 1).getCreatedAt();
+                long duration = events.isEmpty() ? 0 : endTime - startTime;
+                return new EventTrace(correlationId, events, startTime, endTime, duration, false, truncated);
+            });
+        });
+    }
+
+    /**
+     * Event của subject, mới nhất trước, sort (createdAt desc, id desc), không đếm tổng số hit.
+     * Khi có since chỉ lấy event đứng sau mốc (createdAt, id) của since (cận dưới bao gồm cùng millisecond,
+     * id làm tie-breaker) và chỉ truy vấn các partition từ since đến hiện tại. Partition tạo từ template
+     * version 2 được sắp theo đúng (createdAt desc, id desc) nên mỗi shard dừng sau size + 1 document khớp;
+     * partition cũ hơn và index legacy vẫn phải duyệt mọi document khớp của subject, chỉ không phải đếm chúng.
+     * Trang sau dùng search_after, không cần point-in-time.
+     * <p>
+     * Watermark trả về ở trang đầu là vị trí của event mới nhất có createdAt nhỏ hơn watermark index
+     * (IngestWatermark trừ settleSeconds): event mới hơn có thể còn đang được index với createdAt nhỏ hơn,
+     * nên lần poll sau đọc lại từ mốc đó và có thể trả lại event client đã có trong khoảng chồng lấn này;
+     * client loại trùng theo id. Khi trang since có hasMore = true, client phải đọc hết các trang cũ hơn qua
+     * cursor trước khi dùng watermark mới, nếu không các event ở giữa bị bỏ qua. Trang đọc bằng cursor
+     * không trả watermark.
+     */
+    @Override
+    public CompletableFuture<SubjectTimeline> findSubjectTimeline(String subjectId, TimelineWatermark since, int size,
+                                                                  SearchCursor cursor) {
+        Long from = cursor != null ? cursor.getFromTime() : since != null ? Long.valueOf(since.getCreatedAt()) : null;
+        String fromId = cursor != null ? cursor.getFromId() : since != null ? since.getId() : null;
+        SearchRequest.Builder builder = searchIn(from, from != null ? System.currentTimeMillis() : null)
+                .query(q -> q.bool(b -> {
+                    b.filter(f -> f.term(t -> t.field("subjectId").value(FieldValue.of(subjectId))));
+                    if (from != null) {
+                        b.filter(f -> f.range(r -> r.field("createdAt").gte(JsonData.of(from))));
+                    }
+                    if (from != null && fromId != null) {
+                        // Cùng millisecond với mốc: chỉ lấy event có id đứng sau
+                        b.filter(f -> f.bool(after -> after
+                                .should(s -> s.range(r -> r.field("createdAt").gt(JsonData.of(from))))
+                                .should(s -> s.range(r -> r.field("id").gt(JsonData.of(fromId))))
+                                .minimumShouldMatch("1")));
+                    }
+                    return b;
+                }))
+                .sort(s -> s.field(f -> f.field("createdAt").order(SortOrder.Desc)))
+                .sort(s -> s.field(f -> f.field("id").order(SortOrder.Desc)))
+                .source(s -> s.filter(f -> f.includes(EventSummary.FIELDS)))
+                .trackTotalHits(t -> t.enabled(false))
+                .size(size + 1);
+        if (cursor != null) {
+            builder.searchAfter(cursor.getSearchAfter());
+        }
+
+        return search(builder.build(), EventSummary.class).thenApply(response -> {
+            List<Hit<EventSummary>> hits = response.hits().hits();
+            boolean hasMore = hits.size() > size;
+            List<Hit<EventSummary>> pageHits = hasMore ? hits.subList(0, size) : hits;
+            String nextCursor = hasMore
+                    ? new SearchCursor(null, pageHits.get(pageHits.size() - 1).sort(), from, null, fromId).encode()
+                    : null;
+            List<EventSummary> items = pageHits.stream().map(SearchLogImpl::source).collect(Collectors.toList());
+            TimelineWatermark watermark = cursor == null ? timelineWatermark(items, since) : null;
+            return new SubjectTimeline(items, nextCursor, hasMore, watermark != null ? watermark.encode() : null);
+        });
+    }
+
+    /**
+     * Event mới nhất của trang đầu nằm dưới watermark index; nếu trang không có event nào như vậy thì mọi event
+     * trước watermark index đã được trả (hoặc nằm ở các trang cursor), mốc tiến lên chính watermark index.
+     */
+    private TimelineWatermark timelineWatermark(List<EventSummary> items, TimelineWatermark since) {
+        long indexed = IngestWatermark.getInstance().current();
+        if (indexed == Long.MIN_VALUE) {
+            return since;
+        }
+        long safe = Math.min(indexed, System.currentTimeMillis()) - timelineSettleMillis;
+        for (EventSummary item : items) {
+            if (item.getCreatedAt() < safe) {
+                return new TimelineWatermark(item.getCreatedAt(), item.getId());
+            }
+        }
+        if (since == null || since.getCreatedAt() < safe) {
+            return new TimelineWatermark(safe, null);
+        }
+        return since;
     }
 
+    /**
+     * EventLog đầy đủ (kèm data) theo id. createdAt (nếu có) giới hạn truy vấn vào partition chứa event,
+     * nếu không thì tìm trên read alias. Trả về null nếu không tồn tại.
+     */
     @Override
-    public List<EventLog> findEventLogBySubjectId(String subjectId) {
-        Query query = new Query.Builder()
-                .term(t -> t.field("subjectId.keyword").value(FieldValue.of(subjectId)))
+    public CompletableFuture<EventLog> findEventById(String id, Long createdAt) {
+        SearchRequest request = searchIn(createdAt, createdAt)
+                .query(q -> q.ids(i -> i.values(id)))
+                .size(1)
                 .build();
+        return search(request, EventLog.class)
+                .thenApply(response -> response.hits().hits().isEmpty()
+                        ? null
+                        : response.hits().hits().get(0).source());
+    }
 
-        SearchRequest request = new SearchRequest.Builder()
-                .index(indexName)
-                .query(query)
+    @Override
+    public CompletableFuture<List<EventSummary>> findEventLogBySubjectId(String subjectId) {
+        return executeSearch(buildSearch(EventQuery.builder()
+                .filter(FilterNode.term("subjectId", subjectId))
+                .fields(EventSummary.FIELDS)
                 .size(1000)
-                .build();
-        return executeSearch(request);
+                .build()).build());
     }
 }
@@ -0,0 +1,236 @@
+package com.defi.search.sketch;
+
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.redis.Redisson;
+import com.defi.search.config.SearchConfig;
+import com.defi.search.dto.CardinalityEstimate;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBucket;
+import org.redisson.api.RHyperLogLogAsync;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đếm số subjectId/targetId phân biệt theo thời gian bằng HyperLogLog của Redis (PFADD/PFCOUNT), cho toàn bộ event
+ * và riêng từng giá trị type, targetType. Mỗi counter có sketch theo giờ (giữ hourRetentionHours)
+ * và theo ngày (giữ retentionDays); một khoảng thời gian được ghép từ các ngày trọn vẹn và các giờ ở hai đầu,
+ * nên số sketch cần gộp bị chặn bởi số ngày + 48, không phụ thuộc số event.
+ * Sketch nằm trên Redis nên mọi instance cùng ghi và cùng đọc một dữ liệu; mốc bắt đầu theo dõi cũng dùng chung.
+ * Giá trị được gom trong bộ nhớ và gửi theo lô mỗi flushIntervalMs, nên kết quả có thể trễ tối đa chừng đó.
+ * Mỗi key có TTL theo thời gian lưu của bucket, Redis tự xóa sketch hết hạn.
+ */
+@Slf4j
+public class CardinalityTracker {
+    @Getter
+    private static final CardinalityTracker instance = new CardinalityTracker();
+
+    public static final List<String> DIMENSIONS = List.of("subjectId", "targetId");
+    public static final List<String> SCOPE_FIELDS = List.of("type", "targetType");
+    private static final String ALL = "*";
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /**
+     * HyperLogLog của Redis luôn dùng 2^14 register.
+     */
+    private static final double RELATIVE_ERROR = 1.04 / Math.sqrt(1 << 14);
+
+    @Getter
+    private boolean enabled;
+    private String keyPrefix;
+    private long hourRetentionMillis;
+    private long dayRetentionMillis;
+    private long trackingSince;
+    private RedissonClient client;
+    private ScheduledExecutorService scheduler;
+    private final Map<PendingKey, Set<String>> pending = new ConcurrentHashMap<>();
+
+    private CardinalityTracker() {
+    }
+
+    public void init() {
+        JsonNode config = SearchConfig.getInstance().getConfig().path("cardinality");
+        this.enabled = config.path("enabled").asBoolean(false);
+        this.keyPrefix = config.path("keyPrefix").asText("search:cardinality");
+        this.hourRetentionMillis = TimeUnit.HOURS.toMillis(config.path("hourRetentionHours").asLong(48));
+        this.dayRetentionMillis = TimeUnit.DAYS.toMillis(config.path("retentionDays").asLong(30));
+        if (enabled) {
+            this.client = Redisson.getInstance().getClient();
+            // Instance khởi động đầu tiên đặt mốc, các instance sau dùng lại mốc đó
+            long start = floor(System.currentTimeMillis(), HOUR_MILLIS) + HOUR_MILLIS;
+            RBucket<Long> since = client.getBucket(keyPrefix + ":since", LongCodec.INSTANCE);
+            since.setIfAbsent(start);
+            this.trackingSince = Objects.requireNonNullElse(since.get(), start);
+
+            long flushInterval = Math.max(100, config.path("flushIntervalMs").asLong(1000));
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cardinality-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        log.info("Cardinality tracking {} (redis key prefix {})", enabled ? "enabled" : "disabled", keyPrefix);
+    }
+
+    /**
+     * Dừng scheduler và gửi nốt các giá trị đang gom.
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            flush();
+        }
+    }
+
+    public void record(JsonNode document) {
+        if (!enabled) {
+            return;
+        }
+        JsonNode createdAt = document.get("createdAt");
+        if (createdAt == null || !createdAt.isNumber()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long hour = floor(createdAt.asLong(), HOUR_MILLIS);
+        long day = floor(createdAt.asLong(), DAY_MILLIS);
+
+        for (String dimension : DIMENSIONS) {
+            String value = text(document, dimension);
+            if (value == null) {
+                continue;
+            }
+            add(dimension, ALL, hour, day, value, now);
+            for (String scopeField : SCOPE_FIELDS) {
+                String scopeValue = text(document, scopeField);
+                if (scopeValue != null) {
+                    add(dimension, scopeField + "=" + scopeValue, hour, day, value, now);
+                }
+            }
+        }
+    }
+
+    private void add(String dimension, String scope, long hour, long day, String value, long now) {
+        String counter = dimension + "|" + scope;
+        if (hour >= floor(now - hourRetentionMillis, HOUR_MILLIS)) {
+            pend(new PendingKey(key(counter, "h", hour), hour + HOUR_MILLIS + hourRetentionMillis), value);
+        }
+        if (day >= floor(now - dayRetentionMillis, DAY_MILLIS)) {
+            pend(new PendingKey(key(counter, "d", day), day + DAY_MILLIS + dayRetentionMillis), value);
+        }
+    }
+
+    /**
+     * compute và remove trên cùng key của ConcurrentHashMap loại trừ nhau,
+     * nên giá trị không bị thêm vào một tập flush vừa lấy đi.
+     */
+    private void pend(PendingKey key, String value) {
+        pending.compute(key, (k, values) -> {
+            Set<String> result = values != null ? values : new HashSet<>();
+            result.add(value);
+            return result;
+        });
+    }
+
+    /**
+     * Gửi mỗi key một PFADD kèm EXPIREAT trong cùng một batch.
+     */
+    private void flush() {
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            RBatch batch = client.createBatch();
+            for (PendingKey key : new ArrayList<>(pending.keySet())) {
+                Set<String> values = pending.remove(key);
+                if (values == null) {
+                    continue;
+                }
+                RHyperLogLogAsync<String> sketch = batch.getHyperLogLog(key.name(), StringCodec.INSTANCE);
+                sketch.addAllAsync(values);
+                sketch.expireAsync(Instant.ofEpochMilli(key.expiresAt()));
+            }
+            batch.execute();
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    /**
+     * Mọi bucket của một counter chung hash tag nên cùng slot trên Redis Cluster và PFCOUNT nhiều key được.
+     */
+    private String key(String counter, String level, long bucket) {
+        return "{" + keyPrefix + ":" + counter + "}:" + level + ":" + bucket;
+    }
+
+    /**
+     * Số giá trị phân biệt của dimension trong [startTime, endTime], lọc theo scopeField=scopeValue
+     * (scopeField null nghĩa là mọi event). Khoảng được mở rộng ra biên giờ (hoặc biên ngày khi
+     * sketch giờ đã hết hạn) và thu hẹp về phần đang được theo dõi.
+     */
+    public CardinalityEstimate estimate(String dimension, String scopeField, String scopeValue,
+                                        long startTime, long endTime) {
+        String counter = dimension + "|" + (scopeField == null ? ALL : scopeField + "=" + scopeValue);
+        long now = System.currentTimeMillis();
+        long hourFloor = Math.max(trackingSince, floor(now - hourRetentionMillis, HOUR_MILLIS) + HOUR_MILLIS);
+        long dayFloor = floor(now - dayRetentionMillis, DAY_MILLIS) + DAY_MILLIS;
+        long from = Math.max(floor(startTime, HOUR_MILLIS), Math.max(trackingSince, dayFloor));
+        long to = Math.min(floor(endTime, HOUR_MILLIS), floor(now, HOUR_MILLIS)) + HOUR_MILLIS;
+
+        List<String> keys = new ArrayList<>();
+        long coveredFrom = from;
+        long coveredTo = to;
+        long cursor = from;
+        while (cursor < to) {
+            long dayStart = floor(cursor, DAY_MILLIS);
+            long dayEnd = dayStart + DAY_MILLIS;
+            boolean wholeDay = cursor == dayStart && dayEnd <= to;
+            if (wholeDay || cursor < hourFloor) {
+                // Ngày trọn vẹn, hoặc giờ đã hết hạn: dùng sketch ngày
+                keys.add(key(counter, "d", dayStart));
+                coveredFrom = Math.min(coveredFrom, Math.max(dayStart, trackingSince));
+                coveredTo = Math.max(coveredTo, dayEnd);
+                cursor = dayEnd;
+            } else {
+                keys.add(key(counter, "h", cursor));
+                cursor += HOUR_MILLIS;
+            }
+        }
+
+        long count = 0;
+        if (!keys.isEmpty()) {
+            // PFCOUNT nhiều key trả về số phần tử của hợp các sketch, key không tồn tại được coi là rỗng
+            count = client.<String>getHyperLogLog(keys.get(0), StringCodec.INSTANCE)
+                    .countWith(keys.subList(1, keys.size()).toArray(String[]::new));
+        }
+        return new CardinalityEstimate(dimension, scopeField, scopeValue, count,
+                RELATIVE_ERROR, coveredFrom, Math.max(coveredFrom, coveredTo - 1));
+    }
+
+    private record PendingKey(String name, long expiresAt) {
+    }
+
+    private static String text(JsonNode document, String field) {
+        JsonNode value = document.get(field);
+        return value == null || value.isNull() || value.isContainerNode() ? null : value.asText();
+    }
+
+    private static long floor(long timestamp, long unit) {
+        return Math.floorDiv(timestamp, unit) * unit;
+    }
+}
@@ -0,0 +1,231 @@
+package com.defi.search.sketch;
+
+import com.defi.common.util.json.JsonUtil;
+import com.defi.common.util.log.ErrorLogger;
+import com.defi.common.util.redis.Redisson;
+import com.defi.search.config.SearchConfig;
+import com.defi.search.dto.HeavyHitter;
+import com.defi.search.dto.TopKEstimate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.BatchResult;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBucket;
+import org.redisson.api.RMapAsync;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sketch Space-Saving cho subjectId và targetId, mỗi bucket thời gian (theo createdAt) một sketch.
+ * Được cập nhật từ luồng index (chỉ event mới tạo) và trả lời top-k xấp xỉ không cần truy vấn OpenSearch.
+ * Mỗi instance chỉ thấy event do nó index, nên sketch của bucket thay đổi được ghi định kỳ (publishIntervalMs)
+ * lên Redis vào hash {keyPrefix:dimension}:bucket, mỗi instance một field; estimate gộp sketch của mọi instance,
+ * nên total, maxMissingCount và sai số của từng key mô tả toàn bộ stream, trễ tối đa một chu kỳ ghi.
+ * Hash có TTL theo retentionHours; mốc bắt đầu theo dõi dùng chung giữa các instance.
+ */
+@Slf4j
+public class HeavyHitterTracker {
+    @Getter
+    private static final HeavyHitterTracker instance = new HeavyHitterTracker();
+
+    public static final List<String> DIMENSIONS = List.of("subjectId", "targetId");
+
+    @Getter
+    private boolean enabled;
+    private int capacity;
+    private long bucketMillis;
+    private long retentionMillis;
+    private long trackingSince;
+    private String keyPrefix;
+    /**
+     * Field của instance trong hash; instance khởi động lại dùng field mới, sketch cũ vẫn được gộp đến khi hết hạn.
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+    private RedissonClient client;
+    private ScheduledExecutorService scheduler;
+    private final Map<String, ConcurrentSkipListMap<Long, SpaceSaving>> sketches = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> dirty = new ConcurrentHashMap<>();
+
+    private HeavyHitterTracker() {
+    }
+
+    public void init() {
+        JsonNode config = SearchConfig.getInstance().getConfig().path("heavy_hitters");
+        this.enabled = config.path("enabled").asBoolean(false);
+        this.capacity = config.path("capacity").asInt(1000);
+        this.bucketMillis = TimeUnit.MINUTES.toMillis(Math.max(1, config.path("bucketMinutes").asLong(5)));
+        this.retentionMillis = TimeUnit.HOURS.toMillis(config.path("retentionHours").asLong(24));
+        this.keyPrefix = config.path("keyPrefix").asText("search:heavy_hitters");
+        DIMENSIONS.forEach(dimension -> {
+            sketches.put(dimension, new ConcurrentSkipListMap<>());
+            dirty.put(dimension, ConcurrentHashMap.newKeySet());
+        });
+        if (enabled) {
+            this.client = Redisson.getInstance().getClient();
+            // Instance khởi động đầu tiên đặt mốc, các instance sau dùng lại mốc đó
+            long start = floor(System.currentTimeMillis()) + bucketMillis;
+            RBucket<Long> since = client.getBucket(keyPrefix + ":since", LongCodec.INSTANCE);
+            since.setIfAbsent(start);
+            this.trackingSince = Objects.requireNonNullElse(since.get(), start);
+
+            long publishInterval = Math.max(100, config.path("publishIntervalMs").asLong(1000));
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "heavy-hitter-publish");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::publish, publishInterval, publishInterval, TimeUnit.MILLISECONDS);
+        }
+        log.info("Heavy hitter tracking {} (capacity {}, bucket {} ms)",
+                enabled ? "enabled" : "disabled", capacity, bucketMillis);
+    }
+
+    /**
+     * Dừng scheduler và ghi nốt các sketch đã thay đổi.
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            publish();
+        }
+    }
+
+    public void record(JsonNode document) {
+        if (!enabled) {
+            return;
+        }
+        JsonNode createdAt = document.get("createdAt");
+        if (createdAt == null || !createdAt.isNumber()) {
+            return;
+        }
+        long bucket = floor(createdAt.asLong());
+        long oldest = floor(System.currentTimeMillis() - retentionMillis);
+        if (bucket < oldest) {
+            return;
+        }
+        for (String dimension : DIMENSIONS) {
+            JsonNode value = document.get(dimension);
+            if (value == null || value.isNull() || value.isContainerNode()) {
+                continue;
+            }
+            ConcurrentSkipListMap<Long, SpaceSaving> buckets = sketches.get(dimension);
+            SpaceSaving sketch = buckets.get(bucket);
+            if (sketch == null) {
+                sketch = buckets.computeIfAbsent(bucket, b -> new SpaceSaving(capacity));
+                buckets.headMap(oldest).clear();
+            }
+            sketch.offer(value.asText(), 1);
+            dirty.get(dimension).add(bucket);
+        }
+    }
+
+    /**
+     * Ghi snapshot của các bucket đã thay đổi. Bucket được bỏ khỏi tập dirty trước khi chụp,
+     * nên event đến trong lúc ghi sẽ được ghi ở chu kỳ sau.
+     */
+    private void publish() {
+        try {
+            RBatch batch = null;
+            for (String dimension : DIMENSIONS) {
+                Set<Long> changed = dirty.get(dimension);
+                for (Long bucket : new ArrayList<>(changed)) {
+                    changed.remove(bucket);
+                    SpaceSaving sketch = sketches.get(dimension).get(bucket);
+                    if (sketch == null) {
+                        continue;
+                    }
+                    if (batch == null) {
+                        batch = client.createBatch();
+                    }
+                    RMapAsync<String, String> map = batch.getMap(key(dimension, bucket), StringCodec.INSTANCE);
+                    map.fastPutAsync(instanceId, encode(sketch));
+                    map.expireAsync(Instant.ofEpochMilli(bucket + bucketMillis + retentionMillis));
+                }
+            }
+            if (batch != null) {
+                batch.execute();
+            }
+        } catch (Exception e) {
+            ErrorLogger.create(e).log();
+        }
+    }
+
+    /**
+     * Top size key của dimension trong [startTime, endTime], khoảng được mở rộng ra biên bucket
+     * và thu hẹp về phần sketch đang lưu. Gộp sketch của mọi instance đọc từ Redis.
+     */
+    public TopKEstimate estimate(String dimension, long startTime, long endTime, int size) {
+        long oldest = Math.max(trackingSince, floor(System.currentTimeMillis() - retentionMillis));
+        long from = Math.max(floor(startTime), oldest);
+        long toExclusive = floor(endTime) + bucketMillis;
+
+        SpaceSaving merged = new SpaceSaving(capacity);
+        if (from < toExclusive) {
+            RBatch batch = client.createBatch();
+            for (long bucket = from; bucket < toExclusive; bucket += bucketMillis) {
+                batch.getMap(key(dimension, bucket), StringCodec.INSTANCE).readAllValuesAsync();
+            }
+            BatchResult<?> result = batch.execute();
+            for (Object values : result.getResponses()) {
+                for (Object encoded : (Iterable<?>) values) {
+                    merged.merge(decode((String) encoded));
+                }
+            }
+        }
+
+        List<HeavyHitter> items = merged.top(size).stream()
+                .map(counter -> new HeavyHitter(counter.getKey(), counter.getCount(), counter.getError()))
+                .toList();
+        return new TopKEstimate(items, merged.getTotal(), merged.minCount(), from, Math.max(from, toExclusive - 1));
+    }
+
+    private String key(String dimension, long bucket) {
+        return "{" + keyPrefix + ":" + dimension + "}:" + bucket;
+    }
+
+    /**
+     * {"total": n, "counters": [[key, count, error], ...]}
+     */
+    private String encode(SpaceSaving sketch) {
+        ObjectNode node = JsonUtil.createObjectNode();
+        ArrayNode counters = node.putArray("counters");
+        synchronized (sketch) {
+            node.put("total", sketch.getTotal());
+            for (SpaceSaving.Counter counter : sketch.top(capacity)) {
+                counters.addArray().add(counter.getKey()).add(counter.getCount()).add(counter.getError());
+            }
+        }
+        return node.toString();
+    }
+
+    private SpaceSaving decode(String encoded) {
+        JsonNode node = JsonUtil.toJsonObject(encoded);
+        List<SpaceSaving.Counter> counters = new ArrayList<>();
+        for (JsonNode counter : node.path("counters")) {
+            counters.add(new SpaceSaving.Counter(counter.get(0).asText(), counter.get(1).asLong(),
+                    counter.get(2).asLong()));
+        }
+        return SpaceSaving.of(capacity, node.path("total").asLong(), counters);
+    }
+
+    private long floor(long timestamp) {
+        return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+    }
+}
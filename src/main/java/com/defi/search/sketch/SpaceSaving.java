@@ -0,0 +1,135 @@
+package com.defi.search.sketch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Thuật toán Space-Saving (Metwally và cộng sự) giữ tối đa capacity counter cho các key xuất hiện nhiều nhất.
+ * Mỗi counter là ước lượng trên: true count nằm trong [count - error, count].
+ * Key không có trong sketch có true count không vượt quá {@link #minCount()}, và minCount không vượt quá
+ * total / capacity, nên mọi key chiếm hơn total / capacity chắc chắn có mặt.
+ */
+public class SpaceSaving {
+    private static final Comparator<Counter> ORDER = Comparator
+            .comparingLong(Counter::getCount)
+            .thenComparing(Counter::getKey);
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> ordered = new TreeSet<>(ORDER);
+    @Getter
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Dựng lại sketch từ total và toàn bộ counter của một sketch khác (ví dụ snapshot từ instance khác),
+     * lấy từ {@link #getTotal()} và {@link #top(int)} với n không nhỏ hơn capacity.
+     */
+    public static SpaceSaving of(int capacity, long total, List<Counter> counters) {
+        SpaceSaving sketch = new SpaceSaving(capacity);
+        sketch.total = total;
+        counters.stream()
+                .sorted(ORDER.reversed())
+                .limit(sketch.capacity)
+                .forEach(c -> sketch.put(new Counter(c.key, c.count, c.error)));
+        return sketch;
+    }
+
+    public synchronized void offer(String key, long count) {
+        total += count;
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            ordered.remove(counter);
+            counter.count += count;
+            ordered.add(counter);
+            return;
+        }
+        if (counters.size() < capacity) {
+            put(new Counter(key, count, 0));
+            return;
+        }
+        // Thay counter nhỏ nhất: key mới kế thừa count của nó làm sai số
+        Counter min = ordered.pollFirst();
+        counters.remove(min.key);
+        put(new Counter(key, min.count + count, min.count));
+    }
+
+    /**
+     * Cận trên cho true count của key không có trong sketch.
+     */
+    public synchronized long minCount() {
+        return counters.size() < capacity || ordered.isEmpty() ? 0 : ordered.first().count;
+    }
+
+    /**
+     * Gộp một sketch khác vào sketch này. Key thiếu ở một phía được cộng minCount của phía đó
+     * vào cả count và error, nên bảo đảm cận trên/cận dưới vẫn đúng sau khi gộp.
+     */
+    public void merge(SpaceSaving other) {
+        Map<String, Counter> otherCounters;
+        long otherMin;
+        long otherTotal;
+        synchronized (other) {
+            otherCounters = new HashMap<>(other.counters.size());
+            other.counters.forEach((key, c) -> otherCounters.put(key, new Counter(key, c.count, c.error)));
+            otherMin = other.minCount();
+            otherTotal = other.total;
+        }
+        synchronized (this) {
+            long thisMin = minCount();
+            List<Counter> combined = new ArrayList<>(counters.size() + otherCounters.size());
+            for (Counter mine : counters.values()) {
+                Counter theirs = otherCounters.remove(mine.key);
+                combined.add(theirs != null
+                        ? new Counter(mine.key, mine.count + theirs.count, mine.error + theirs.error)
+                        : new Counter(mine.key, mine.count + otherMin, mine.error + otherMin));
+            }
+            for (Counter theirs : otherCounters.values()) {
+                combined.add(new Counter(theirs.key, theirs.count + thisMin, theirs.error + thisMin));
+            }
+            combined.sort(ORDER.reversed());
+
+            counters.clear();
+            ordered.clear();
+            combined.stream().limit(capacity).forEach(this::put);
+            total += otherTotal;
+        }
+    }
+
+    /**
+     * n counter lớn nhất, giảm dần theo count.
+     */
+    public synchronized List<Counter> top(int n) {
+        List<Counter> result = new ArrayList<>(Math.min(n, counters.size()));
+        for (Counter counter : ordered.descendingSet()) {
+            if (result.size() >= n) {
+                break;
+            }
+            result.add(new Counter(counter.key, counter.count, counter.error));
+        }
+        return result;
+    }
+
+    private void put(Counter counter) {
+        counters.put(counter.key, counter);
+        ordered.add(counter);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Counter {
+        private final String key;
+        private long count;
+        private long error;
+    }
+}
@@ -0,0 +1,77 @@
+package com.defi.search.tail;
+
+import com.defi.search.config.SearchConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.vertx.core.Context;
+import io.vertx.core.http.HttpServerResponse;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phát event mới cho các client đang tail qua SSE, ngay khi event được đọc từ Redis stream
+ * (trước khi index), nên tail không tạo truy vấn nào lên OpenSearch.
+ * Event chỉ được chuyển thành JSON khi có client khớp filter, và một lần cho mọi client.
+ * Chỉ thấy event do instance này consume: với nhiều instance cùng consumer group,
+ * mỗi instance chỉ nhận một phần stream. Message được gửi lại (redelivery) có thể xuất hiện hai lần.
+ */
+@Slf4j
+public class LiveTailHub {
+    @Getter
+    private static final LiveTailHub instance = new LiveTailHub();
+
+    @Getter
+    private boolean enabled;
+    private int bufferSize;
+    private int maxClients;
+    private long heartbeatMillis;
+    private final Set<TailSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private LiveTailHub() {
+    }
+
+    public void init() {
+        JsonNode config = SearchConfig.getInstance().getConfig().path("live_tail");
+        this.enabled = config.path("enabled").asBoolean(false);
+        this.bufferSize = Math.max(1, config.path("bufferSize").asInt(1000));
+        this.maxClients = config.path("maxClients").asInt(100);
+        this.heartbeatMillis = Math.max(1, config.path("heartbeatSeconds").asLong(15)) * 1000;
+        log.info("Live tail {} (buffer {}, max clients {})", enabled ? "enabled" : "disabled", bufferSize, maxClients);
+    }
+
+    /**
+     * Gắn response SSE vào hub; event khớp filter được đẩy tới client cho đến khi client ngắt kết nối
+     * hoặc bị loại vì đọc chậm hơn tốc độ event đến.
+     * @return false nếu tail bị tắt hoặc đã đủ số client
+     */
+    public boolean subscribe(Context context, HttpServerResponse response, TailFilter filter) {
+        if (!enabled || subscribers.size() >= maxClients) {
+            return false;
+        }
+        TailSubscriber subscriber = new TailSubscriber(context, response, filter, bufferSize, heartbeatMillis,
+                subscribers::remove);
+        subscribers.add(subscriber);
+        subscriber.start();
+        return true;
+    }
+
+    /**
+     * Gọi từ luồng consumer cho mỗi event đọc được.
+     */
+    public void publish(JsonNode document) {
+        if (!enabled || subscribers.isEmpty()) {
+            return;
+        }
+        String data = null;
+        for (TailSubscriber subscriber : subscribers) {
+            if (subscriber.getFilter().matches(document)) {
+                if (data == null) {
+                    data = document.toString();
+                }
+                subscriber.offer(data);
+            }
+        }
+    }
+}
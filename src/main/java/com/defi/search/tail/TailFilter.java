@@ -0,0 +1,23 @@
+package com.defi.search.tail;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Điều kiện lọc phía server của một client tail; field null là không lọc theo field đó.
+ */
+public record TailFilter(String type, String subjectId, String targetType) {
+
+    public boolean matches(JsonNode document) {
+        return matches(document, "type", type)
+                && matches(document, "subjectId", subjectId)
+                && matches(document, "targetType", targetType);
+    }
+
+    private static boolean matches(JsonNode document, String field, String expected) {
+        if (expected == null) {
+            return true;
+        }
+        JsonNode value = document.get(field);
+        return value != null && !value.isContainerNode() && expected.equals(value.asText());
+    }
+}
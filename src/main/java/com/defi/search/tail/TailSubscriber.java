@@ -0,0 +1,103 @@
+package com.defi.search.tail;
+
+import io.vertx.core.Context;
+import io.vertx.core.http.HttpServerResponse;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Một client SSE. Luồng consumer chỉ đưa event vào buffer có giới hạn; việc ghi ra response
+ * luôn chạy trên context của request. Khi buffer đầy (client đọc chậm, write queue của response đã đầy)
+ * client bị ngắt thay vì làm chậm luồng consumer hoặc giữ bộ nhớ không giới hạn.
+ */
+@Slf4j
+class TailSubscriber {
+    @Getter
+    private final TailFilter filter;
+    private final Context context;
+    private final HttpServerResponse response;
+    private final ArrayBlockingQueue<String> buffer;
+    private final long heartbeatMillis;
+    private final Consumer<TailSubscriber> onClose;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private long heartbeatTimer = -1;
+
+    TailSubscriber(Context context, HttpServerResponse response, TailFilter filter, int bufferSize,
+                   long heartbeatMillis, Consumer<TailSubscriber> onClose) {
+        this.context = context;
+        this.response = response;
+        this.filter = filter;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.heartbeatMillis = heartbeatMillis;
+        this.onClose = onClose;
+    }
+
+    void start() {
+        context.runOnContext(v -> {
+            response.setChunked(true)
+                    .putHeader("Content-Type", "text/event-stream")
+                    .putHeader("Cache-Control", "no-cache")
+                    .putHeader("Connection", "keep-alive");
+            response.closeHandler(ignored -> close(false));
+            response.exceptionHandler(ignored -> close(false));
+            // Comment SSE định kỳ để proxy không đóng kết nối rảnh
+            heartbeatTimer = context.owner().setPeriodic(heartbeatMillis, id -> {
+                if (!closed.get() && !response.writeQueueFull()) {
+                    response.write(":\n\n");
+                }
+            });
+            response.write(":connected\n\n");
+        });
+    }
+
+    /**
+     * Gọi từ luồng consumer; không bao giờ block.
+     */
+    void offer(String data) {
+        if (closed.get()) {
+            return;
+        }
+        if (!buffer.offer(data)) {
+            log.info("Dropping slow live tail client, buffer of {} events is full", buffer.size());
+            context.runOnContext(v -> close(true));
+            return;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            context.runOnContext(v -> drain());
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        if (closed.get()) {
+            return;
+        }
+        String data;
+        while (!response.writeQueueFull() && (data = buffer.poll()) != null) {
+            response.write("data: " + data + "\n\n");
+        }
+        if (!buffer.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            // Chờ socket ghi bớt rồi mới đọc tiếp buffer
+            response.drainHandler(v -> drain());
+        }
+    }
+
+    private void close(boolean dropped) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        onClose.accept(this);
+        buffer.clear();
+        if (heartbeatTimer >= 0) {
+            context.owner().cancelTimer(heartbeatTimer);
+        }
+        if (dropped && !response.ended() && !response.closed()) {
+            response.end("event: dropped\ndata: slow consumer\n\n");
+        }
+    }
+}
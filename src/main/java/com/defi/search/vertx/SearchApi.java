@@ -18,6 +18,17 @@ public class SearchApi {
                 .handler(BodyHandler.create())
                 .handler(HttpApi.handleAsync(SearchHandler::handleFindByDateRange));
 
+        router.post("/admin/api/search/by-date-range/page")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleFindByDateRangePage));
+
+        router.post("/admin/api/search/by-date-range/export")
+                .handler(BodyHandler.create())
+                .handler(SearchHandler::handleExportByDateRange);
+
+        router.get("/admin/api/search/tail")
+                .handler(SearchHandler::handleLiveTail);
+
         router.post("/admin/api/search/user-by-type")
                 .handler(BodyHandler.create())
                 .handler(HttpApi.handleAsync(SearchHandler::handleFindUserByType));
@@ -38,6 +49,37 @@ public class SearchApi {
                 .handler(BodyHandler.create())
                 .handler(HttpApi.handleAsync(SearchHandler::handleFindTopUsersByEventCount));
 
+        router.post("/admin/api/search/event")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleFindEventById));
+
+        router.post("/admin/api/search/trace")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleFindTrace));
+
+        router.post("/admin/api/search/timeline")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleFindSubjectTimeline));
+
+        router.post("/admin/api/search/events")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleSearchEvents));
+
+        router.post("/admin/api/search/facets")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleFindFacets));
+
+        router.post("/admin/api/search/histogram")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleEventHistogram));
+
+        router.post("/admin/api/search/distinct-count")
+                .handler(BodyHandler.create())
+                .handler(HttpApi.handleAsync(SearchHandler::handleCountDistinct));
+
+        router.get("/admin/api/search/stream-stats")
+                .handler(HttpApi.handleAsync(SearchHandler::handleStreamStats));
+
         log.info("Search API endpoints configured successfully");
     }
 }
\ No newline at end of file
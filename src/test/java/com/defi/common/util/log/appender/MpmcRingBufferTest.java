@@ -0,0 +1,140 @@
+package com.defi.common.util.log.appender;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpmcRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new MpmcRingBuffer<String>(1000).capacity());
+        assertEquals(1024, new MpmcRingBuffer<String>(1024).capacity());
+        assertEquals(2048, new MpmcRingBuffer<String>(1025).capacity());
+    }
+
+    @Test
+    void offerFailsWhenFullAndPollReturnsNullWhenEmpty() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(8);
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(8));
+        assertEquals(8, buffer.size());
+
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(8));
+    }
+
+    @Test
+    void keepsFifoOrderAcrossWrapAround() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(4);
+        int next = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(buffer.offer(round * 3 + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(next++, buffer.poll());
+            }
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void drainToTakesAtMostMaxInOrder() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(16);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(i);
+        }
+        List<Integer> target = new ArrayList<>();
+
+        assertEquals(4, buffer.drainTo(target, 4));
+        assertEquals(List.of(0, 1, 2, 3), target);
+        assertEquals(6, buffer.drainTo(target, 100));
+        assertEquals(10, target.size());
+        assertEquals(0, buffer.drainTo(target, 100));
+    }
+
+    @Test
+    void concurrentProducersAndConsumersDeliverEveryElementOnce() throws Exception {
+        int producers = 4;
+        int consumers = 2;
+        int perProducer = 50_000;
+        int total = producers * perProducer;
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(1024);
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(base + i)) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                    return null;
+                });
+            }
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (int c = 0; c < consumers; c++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    List<Integer> received = new ArrayList<>();
+                    while (consumed.get() < total) {
+                        Integer element = buffer.poll();
+                        if (element == null) {
+                            Thread.onSpinWait();
+                            continue;
+                        }
+                        received.add(element);
+                        consumed.incrementAndGet();
+                    }
+                    return received;
+                }));
+            }
+            start.countDown();
+
+            BitSet seen = new BitSet(total);
+            int count = 0;
+            for (Future<List<Integer>> result : results) {
+                int[] lastOfProducer = new int[producers];
+                Arrays.fill(lastOfProducer, -1);
+                for (int element : result.get(60, TimeUnit.SECONDS)) {
+                    assertFalse(seen.get(element), "element " + element + " delivered twice");
+                    seen.set(element);
+                    count++;
+                    // Một consumer nhận phần tử của cùng producer theo đúng thứ tự ghi
+                    int producer = element / perProducer;
+                    assertTrue(element > lastOfProducer[producer]);
+                    lastOfProducer[producer] = element;
+                }
+            }
+            assertEquals(total, count);
+            assertEquals(total, seen.cardinality());
+            assertTrue(buffer.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.defi.common.util.log.appender;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillJournalTest {
+    // Record "m00" chiếm 7 byte: mỗi segment 64 byte chứa 8 record (chừa 4 byte đánh dấu kết thúc)
+    private static final int SEGMENT_BYTES = 64;
+    private static final int RECORDS_PER_SEGMENT = 8;
+
+    @TempDir
+    Path directory;
+
+    private SpillJournal open(int maxSegments) throws IOException {
+        return new SpillJournal(directory, SEGMENT_BYTES, maxSegments);
+    }
+
+    private static void append(SpillJournal journal, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            assertTrue(journal.append(message(i)));
+        }
+    }
+
+    private static String message(int i) {
+        return String.format("m%02d", i);
+    }
+
+    private static List<String> messages(int from, int to) {
+        List<String> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(message(i));
+        }
+        return messages;
+    }
+
+    /**
+     * Đọc và commit đến khi hết record.
+     */
+    private static List<String> drain(SpillJournal journal) throws IOException {
+        List<String> read = new ArrayList<>();
+        while (journal.hasPending()) {
+            List<String> batch = journal.peek(5);
+            read.addAll(batch);
+            journal.commit();
+        }
+        return read;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("spill-")).count();
+        }
+    }
+
+    @Test
+    void peekWithoutCommitReturnsSameRecords() throws IOException {
+        try (SpillJournal journal = open(4)) {
+            append(journal, 0, 3);
+
+            assertEquals(messages(0, 2), journal.peek(2));
+            assertEquals(messages(0, 2), journal.peek(2));
+            journal.commit();
+
+            assertEquals(1, journal.pendingCount());
+            assertEquals(messages(2, 3), journal.peek(2));
+        }
+    }
+
+    @Test
+    void readsInOrderAcrossRolloverAndDeletesReadSegments() throws IOException {
+        try (SpillJournal journal = open(10)) {
+            append(journal, 0, 20);
+            assertEquals(3, segmentFiles());
+
+            // Một lần peek không vượt qua ranh giới segment
+            assertEquals(messages(0, RECORDS_PER_SEGMENT), journal.peek(100));
+            journal.commit();
+
+            assertEquals(messages(RECORDS_PER_SEGMENT, 20), drain(journal));
+            assertFalse(journal.hasPending());
+            assertEquals(1, segmentFiles());
+        }
+    }
+
+    @Test
+    void appendFailsWhenSegmentsAreExhaustedOrRecordTooLarge() throws IOException {
+        try (SpillJournal journal = open(2)) {
+            append(journal, 0, 2 * RECORDS_PER_SEGMENT);
+
+            assertFalse(journal.append(message(99)));
+            assertFalse(journal.append("x".repeat(SEGMENT_BYTES)));
+            assertEquals(2 * RECORDS_PER_SEGMENT, journal.pendingCount());
+        }
+    }
+
+    @Test
+    void restartResumesAfterLastCommit() throws IOException {
+        try (SpillJournal journal = open(10)) {
+            append(journal, 0, 20);
+            journal.peek(100);
+            journal.commit();
+            journal.peek(3);
+            journal.commit();
+        }
+
+        try (SpillJournal journal = open(10)) {
+            assertEquals(20 - RECORDS_PER_SEGMENT - 3, journal.pendingCount());
+            append(journal, 20, 22);
+            assertEquals(messages(RECORDS_PER_SEGMENT + 3, 22), drain(journal));
+        }
+    }
+
+    @Test
+    void crashBeforeCommitReplaysPeekedRecords() throws IOException {
+        SpillJournal crashed = open(10);
+        append(crashed, 0, 12);
+        crashed.peek(5);
+        crashed.commit();
+        // Đã gửi nhưng chưa commit khi tiến trình dừng: không gọi close
+        crashed.peek(2);
+
+        try (SpillJournal journal = open(10)) {
+            assertEquals(7, journal.pendingCount());
+            assertEquals(messages(5, 12), drain(journal));
+        }
+    }
+
+    @Test
+    void restartsDoNotAccumulateSegments() throws IOException {
+        try (SpillJournal journal = open(3)) {
+            append(journal, 0, 10);
+            drain(journal);
+        }
+        for (int restart = 0; restart < 5; restart++) {
+            try (SpillJournal journal = open(3)) {
+                assertFalse(journal.hasPending());
+            }
+        }
+        assertEquals(1, segmentFiles());
+
+        // Vẫn ghi được đủ maxSegments segment sau nhiều lần khởi động lại
+        try (SpillJournal journal = open(3)) {
+            append(journal, 0, 3 * RECORDS_PER_SEGMENT);
+            assertEquals(messages(0, 3 * RECORDS_PER_SEGMENT), drain(journal));
+        }
+    }
+
+    @Test
+    void restartKeepsSegmentsWithPendingRecords() throws IOException {
+        try (SpillJournal journal = open(10)) {
+            append(journal, 0, 2 * RECORDS_PER_SEGMENT + 1);
+        }
+        for (int restart = 0; restart < 3; restart++) {
+            open(10).close();
+        }
+
+        try (SpillJournal journal = open(10)) {
+            assertEquals(2 * RECORDS_PER_SEGMENT + 1, journal.pendingCount());
+            assertEquals(4, segmentFiles());
+            assertEquals(messages(0, 2 * RECORDS_PER_SEGMENT + 1), drain(journal));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.defi.common.util.log.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventCodecTest {
+    private static final String FIELD = "data";
+    private static final String EVENT = "{\"id\":\"e1\",\"type\":\"LOGIN\",\"subjectId\":\"u1\",\"createdAt\":1706608800000,"
+            + "\"payload\":{\"ip\":\"10.0.0.1\",\"tags\":[\"a\",\"b\"]}}";
+
+    private static Map<String, byte[]> entry(byte[] payload, String codec, String compression) {
+        Map<String, byte[]> fields = new HashMap<>();
+        fields.put(FIELD, payload);
+        if (codec != null) {
+            fields.put(EventCodec.HEADER_FIELD, codec.getBytes(StandardCharsets.UTF_8));
+        }
+        if (compression != null) {
+            fields.put(EventCodec.COMPRESSION_FIELD, compression.getBytes(StandardCharsets.UTF_8));
+        }
+        return fields;
+    }
+
+    @Test
+    void legacyEntryWithoutHeaderIsJson() throws IOException {
+        byte[] payload = EVENT.getBytes(StandardCharsets.UTF_8);
+
+        List<EventCodec.Decoded> events = EventCodec.decode(entry(payload, null, null), FIELD);
+
+        assertEquals(1, events.size());
+        assertEquals("LOGIN", events.get(0).document().get("type").asText());
+        // Payload giữ nguyên byte appender đã ghi: id dự phòng của event không có id không đổi
+        assertArrayEquals(payload, events.get(0).payload());
+        assertEquals(payload.length, events.get(0).sizeInBytes());
+    }
+
+    @Test
+    void smileRoundTripsToSameDocument() throws IOException {
+        byte[] json = EventCodec.encode(EVENT, EventCodec.Format.JSON);
+        byte[] smile = EventCodec.encode(EVENT, EventCodec.Format.SMILE);
+
+        EventCodec.Decoded fromJson = EventCodec.decode(entry(json, "json", null), FIELD).get(0);
+        EventCodec.Decoded fromSmile = EventCodec.decode(entry(smile, "smile", null), FIELD).get(0);
+
+        assertEquals(fromJson.document(), fromSmile.document());
+        assertArrayEquals(smile, fromSmile.payload());
+    }
+
+    @Test
+    void headerValuesAreCaseInsensitive() throws IOException {
+        byte[] smile = EventCodec.encode(EVENT, EventCodec.Format.SMILE);
+
+        assertEquals(1, EventCodec.decode(entry(smile, " SMILE ", "None"), FIELD).size());
+    }
+
+    @Test
+    void entryWithoutPayloadDecodesToNull() throws IOException {
+        assertNull(EventCodec.decode(Map.of("other", new byte[]{1}), FIELD));
+    }
+
+    @Test
+    void rejectsUnsupportedHeadersAndNonObjectPayloads() {
+        byte[] payload = EVENT.getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> EventCodec.decode(entry(payload, "avro", null), FIELD));
+        assertThrows(IOException.class, () -> EventCodec.decode(entry(payload, null, "zstd"), FIELD));
+        assertThrows(IOException.class, () -> EventCodec.decode(entry("[1,2]".getBytes(StandardCharsets.UTF_8),
+                null, null), FIELD));
+        assertThrows(IOException.class, () -> EventCodec.decode(entry("{\"id\":".getBytes(StandardCharsets.UTF_8),
+                null, null), FIELD));
+    }
+
+    @Test
+    void compressedBatchDecodesEveryEventInOrder() throws IOException {
+        for (EventCodec.Format format : EventCodec.Format.values()) {
+            List<byte[]> payloads = new ArrayList<>();
+            for (int i = 0; i < 256; i++) {
+                payloads.add(EventCodec.encode(EVENT.replace("e1", "e" + i), format));
+            }
+            byte[] compressed = EventCodec.compress(payloads, Deflater.BEST_SPEED);
+
+            List<EventCodec.Decoded> events = EventCodec.decode(
+                    entry(compressed, format.headerValue(), EventCodec.Compression.DEFLATE.headerValue()), FIELD);
+
+            assertEquals(256, events.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals("e" + i, events.get(i).document().get("id").asText());
+                assertArrayEquals(payloads.get(i), events.get(i).payload());
+            }
+        }
+    }
+
+    @Test
+    void emptyBatchDecodesToEmptyList() throws IOException {
+        byte[] compressed = EventCodec.compress(List.of(), Deflater.BEST_SPEED);
+
+        assertTrue(EventCodec.decode(entry(compressed, null, "deflate"), FIELD).isEmpty());
+    }
+
+    @Test
+    void rejectsTruncatedOrCorruptBatches() throws IOException {
+        byte[] compressed = EventCodec.compress(List.of(EVENT.getBytes(StandardCharsets.UTF_8)), Deflater.BEST_SPEED);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThrows(IOException.class, () -> EventCodec.decode(entry(truncated, null, "deflate"), FIELD));
+        assertThrows(IOException.class, () -> EventCodec.decode(entry(new byte[]{1, 2, 3}, null, "deflate"), FIELD));
+        assertThrows(IOException.class, () -> EventCodec.decode(entry(deflate(-1, 0, 0), null, "deflate"), FIELD));
+        assertThrows(IOException.class,
+                () -> EventCodec.decode(entry(deflate(1, Integer.MAX_VALUE, 0), null, "deflate"), FIELD));
+    }
+
+    @Test
+    void inflateStopsAtBatchLimit() throws IOException {
+        // Hai event 40MB ("{}" rồi toàn khoảng trắng): nén còn vài trăm KB nhưng giải nén vượt giới hạn 64MB
+        byte[] bomb = deflate(2, 40 * 1024 * 1024, 2);
+
+        IOException error = assertThrows(IOException.class,
+                () -> EventCodec.decode(entry(bomb, null, "deflate"), FIELD));
+        assertTrue(error.getMessage().contains("exceeds"), error.getMessage());
+    }
+
+    /**
+     * Lô tự dựng: khai báo count event và length byte mỗi event; chỉ events event đầu có nội dung,
+     * là JSON object {} kèm khoảng trắng cho đủ length.
+     */
+    private static byte[] deflate(int count, int length, int events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024 * 1024];
+        Arrays.fill(chunk, (byte) ' ');
+        try (DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED)))) {
+            data.writeInt(count);
+            data.writeInt(length);
+            for (int i = 0; i < events; i++) {
+                if (i > 0) {
+                    data.writeInt(length);
+                }
+                data.write(new byte[]{'{', '}'});
+                for (int written = 2; written < length; written += chunk.length) {
+                    data.write(chunk, 0, Math.min(chunk.length, length - written));
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+}
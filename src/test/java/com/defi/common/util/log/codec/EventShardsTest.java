@@ -0,0 +1,75 @@
+package com.defi.common.util.log.codec;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventShardsTest {
+
+    @Test
+    void readsTopLevelSubjectId() {
+        assertEquals("u1", EventShards.subjectId("{\"type\":\"LOGIN\",\"subjectId\":\"u1\"}"));
+        assertEquals("42", EventShards.subjectId("{\"subjectId\":42}"));
+    }
+
+    @Test
+    void skipsNestedSubjectIdFields() {
+        String json = "{\"payload\":{\"subjectId\":\"nested\"},\"tags\":[{\"subjectId\":\"x\"}],\"subjectId\":\"u2\"}";
+
+        assertEquals("u2", EventShards.subjectId(json));
+        assertNull(EventShards.subjectId("{\"payload\":{\"subjectId\":\"nested\"}}"));
+    }
+
+    @Test
+    void returnsNullForMissingNonScalarOrInvalidInput() {
+        assertNull(EventShards.subjectId("{\"type\":\"LOGIN\"}"));
+        assertNull(EventShards.subjectId("{\"subjectId\":null}"));
+        assertNull(EventShards.subjectId("{\"subjectId\":{\"id\":\"u1\"}}"));
+        assertNull(EventShards.subjectId("[\"subjectId\"]"));
+        assertNull(EventShards.subjectId("{\"subjectId\":"));
+        assertNull(EventShards.subjectId(""));
+    }
+
+    @Test
+    void shardOfIsStableAndInRange() {
+        // Giá trị cố định: producer và listener ở mọi JVM, mọi phiên bản phải chọn cùng shard
+        assertEquals(4, EventShards.shardOf("user-1", 8));
+        assertEquals(6, EventShards.shardOf("0190a1b2-c3d4-7e5f", 8));
+        assertEquals(9, EventShards.shardOf("alice", 16));
+        assertEquals(0, EventShards.shardOf("anything", 1));
+        for (int i = 0; i < 1000; i++) {
+            int shard = EventShards.shardOf("user-" + i, 7);
+            assertTrue(shard >= 0 && shard < 7);
+        }
+    }
+
+    @Test
+    void shardOfHandlesNegativeHashes() {
+        String subject = "polygenelubricants";
+        assertEquals(Integer.MIN_VALUE, subject.hashCode());
+
+        int shard = EventShards.shardOf(subject, 5);
+
+        assertTrue(shard >= 0 && shard < 5);
+    }
+
+    @Test
+    void subjectsSpreadEvenlyAcrossShards() {
+        int shards = 8;
+        int subjects = 80_000;
+        int[] counts = new int[shards];
+        for (int i = 0; i < subjects; i++) {
+            counts[EventShards.shardOf("subject-" + i, shards)]++;
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - subjects / shards) < subjects / shards / 10, "uneven shard size " + count);
+        }
+    }
+
+    @Test
+    void streamNameAppendsShardIndex() {
+        assertEquals("events:3", EventShards.streamName("events", 3));
+    }
+}
@@ -0,0 +1,162 @@
+package com.defi.search.cache;
+
+import com.defi.search.dto.LateEvents;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AggregationCacheTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<long[]> calls = new ArrayList<>();
+
+    private final AggregationCache.TermsLoader loader = (field, startTime, endTime, size) -> {
+        calls.add(new long[]{startTime, endTime});
+        return CompletableFuture.completedFuture(Map.of("a", 2L, "b", 1L));
+    };
+
+    private static ObjectNode config() {
+        return MAPPER.createObjectNode()
+                .put("granularitySeconds", 60)
+                .put("segmentMinutes", 60)
+                .put("maxSegments", 48)
+                .put("settleSeconds", 30)
+                .put("liveTtlSeconds", 0);
+    }
+
+    private static long at(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    @Test
+    void splitsRangeOnSegmentBoundaries() {
+        AggregationCache cache = new AggregationCache(config(), System::currentTimeMillis);
+
+        cache.topTerms("type", at("2024-01-30T10:05:30Z"), at("2024-01-30T12:30:10Z"), 10, loader).join();
+
+        assertEquals(3, calls.size());
+        assertSegment(calls.get(0), "2024-01-30T10:05:00Z", "2024-01-30T11:00:00Z");
+        assertSegment(calls.get(1), "2024-01-30T11:00:00Z", "2024-01-30T12:00:00Z");
+        assertSegment(calls.get(2), "2024-01-30T12:00:00Z", "2024-01-30T12:31:00Z");
+    }
+
+    @Test
+    void mergesSegmentCountsAndKeepsTopSize() {
+        AggregationCache cache = new AggregationCache(config(), System::currentTimeMillis);
+
+        List<Map.Entry<String, Long>> top = cache
+                .topTerms("type", at("2024-01-30T10:00:00Z"), at("2024-01-30T12:59:00Z"), 1, loader).join();
+
+        assertEquals(List.of(Map.entry("a", 6L)), top);
+    }
+
+    @Test
+    void sealedSegmentsAreServedFromCache() {
+        AggregationCache cache = new AggregationCache(config(), System::currentTimeMillis);
+        long from = at("2024-01-30T10:00:00Z");
+        long to = at("2024-01-30T12:59:00Z");
+
+        cache.topTerms("type", from, to, 10, loader).join();
+        cache.topTerms("type", from, to, 10, loader).join();
+
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    void segmentsAfterWatermarkStayLive() {
+        long watermark = at("2024-01-30T11:30:00Z");
+        AggregationCache cache = new AggregationCache(config(), () -> watermark);
+        long from = at("2024-01-30T10:00:00Z");
+        long to = at("2024-01-30T12:59:00Z");
+
+        cache.topTerms("type", from, to, 10, loader).join();
+        calls.clear();
+        cache.topTerms("type", from, to, 10, loader).join();
+
+        // Chỉ segment 10:00 đã đóng; liveTtlSeconds = 0 nên hai segment sau được tải lại
+        assertEquals(2, calls.size());
+        assertSegment(calls.get(0), "2024-01-30T11:00:00Z", "2024-01-30T12:00:00Z");
+    }
+
+    @Test
+    void unknownWatermarkSealsNothing() {
+        AggregationCache cache = new AggregationCache(config(), () -> Long.MIN_VALUE);
+        long from = at("2024-01-30T10:00:00Z");
+        long to = at("2024-01-30T10:59:00Z");
+
+        cache.topTerms("type", from, to, 10, loader).join();
+        cache.topTerms("type", from, to, 10, loader).join();
+
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    void lateEventsInvalidateOnlyOverlappingSegments() {
+        AggregationCache cache = new AggregationCache(config(), System::currentTimeMillis);
+        long from = at("2024-01-30T10:00:00Z");
+        long to = at("2024-01-30T12:59:00Z");
+        cache.topTerms("type", from, to, 10, loader).join();
+        calls.clear();
+
+        cache.invalidate(new LateEvents(List.of(at("2024-01-30T11:59:00Z")), List.of(), false));
+        cache.topTerms("type", from, to, 10, loader).join();
+
+        assertEquals(1, calls.size());
+        assertSegment(calls.get(0), "2024-01-30T11:00:00Z", "2024-01-30T12:00:00Z");
+    }
+
+    @Test
+    void tooManySegmentsUseSingleQuery() {
+        ObjectNode config = config().put("maxSegments", 2);
+        AggregationCache cache = new AggregationCache(config, System::currentTimeMillis);
+
+        cache.topTerms("type", at("2024-01-30T10:00:00Z"), at("2024-01-30T12:59:00Z"), 10, loader).join();
+
+        assertEquals(1, calls.size());
+        assertSegment(calls.get(0), "2024-01-30T10:00:00Z", "2024-01-30T13:00:00Z");
+    }
+
+    @Test
+    void failedLoadIsNotCached() {
+        AggregationCache cache = new AggregationCache(config(), System::currentTimeMillis);
+        long from = at("2024-01-30T10:00:00Z");
+        long to = at("2024-01-30T10:59:00Z");
+        AggregationCache.TermsLoader failing = (field, startTime, endTime, size) ->
+                CompletableFuture.failedFuture(new IllegalStateException("unavailable"));
+
+        assertThrows(Exception.class, () -> cache.topTerms("type", from, to, 10, failing).join());
+        cache.topTerms("type", from, to, 10, loader).join();
+
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    void disabledCacheLoadsWholeRange() {
+        AggregationCache cache = new AggregationCache(config().put("enabled", false), System::currentTimeMillis);
+        long from = at("2024-01-30T10:05:30Z");
+        long to = at("2024-01-30T12:30:10Z");
+
+        cache.topTerms("type", from, to, 10, loader).join();
+
+        assertEquals(1, calls.size());
+        assertEquals(from, calls.get(0)[0]);
+        assertEquals(to, calls.get(0)[1]);
+    }
+
+    /**
+     * Loader nhận endTime bao gồm, bằng cận trên của segment trừ 1ms.
+     */
+    private static void assertSegment(long[] call, String start, String endExclusive) {
+        assertEquals(at(start), call[0]);
+        assertEquals(at(endExclusive) - 1, call[1]);
+    }
+}
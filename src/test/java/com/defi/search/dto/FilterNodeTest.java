@@ -0,0 +1,78 @@
+package com.defi.search.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FilterNodeTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static JsonNode json(String text) throws Exception {
+        return MAPPER.readTree(text.replace('\'', '"'));
+    }
+
+    @Test
+    void parsesSingleAndMultiValueTerms() throws Exception {
+        assertEquals(FilterNode.term("type", "LOGIN"), FilterNode.parse(json("{'field': 'type', 'value': 'LOGIN'}")));
+        assertEquals(FilterNode.term("subjectId", "u1", "u2"),
+                FilterNode.parse(json("{'field': 'subjectId', 'values': ['u1', 'u2']}")));
+        assertEquals(FilterNode.term("targetId", "42"), FilterNode.parse(json("{'field': 'targetId', 'value': 42}")));
+    }
+
+    @Test
+    void parsesNestedBooleanTree() throws Exception {
+        FilterNode parsed = FilterNode.parse(json("""
+                {'and': [
+                  {'field': 'subjectType', 'value': 'USER'},
+                  {'or': [{'field': 'type', 'value': 'LOGIN'}, {'not': {'field': 'type', 'value': 'LOGOUT'}}]}
+                ]}"""));
+
+        FilterNode expected = FilterNode.and(
+                FilterNode.term("subjectType", "USER"),
+                FilterNode.or(FilterNode.term("type", "LOGIN"), FilterNode.not(FilterNode.term("type", "LOGOUT"))));
+        assertEquals(expected, parsed);
+    }
+
+    @Test
+    void rejectsUnsupportedFieldsAndMissingValues() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("{'field': 'payload', 'value': 'x'}")));
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("{'field': 'type'}")));
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("{'field': 'type', 'values': []}")));
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("['type']")));
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(null));
+    }
+
+    @Test
+    void rejectsEmptyOrNonArrayBooleanClauses() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("{'and': []}")));
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("{'or': {'field': 'type', 'value': 'A'}}")));
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(json("{'not': 'type'}")));
+    }
+
+    @Test
+    void rejectsTooManyValuesAndTooDeepNesting() throws Exception {
+        StringBuilder values = new StringBuilder("{'field': 'subjectId', 'values': [");
+        for (int i = 0; i <= 1000; i++) {
+            values.append(i == 0 ? "" : ", ").append("'u").append(i).append("'");
+        }
+        JsonNode tooMany = json(values.append("]}").toString());
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(tooMany));
+
+        String deep = "{'field': 'type', 'value': 'A'}";
+        for (int i = 0; i < 9; i++) {
+            deep = "{'not': " + deep + "}";
+        }
+        JsonNode tooDeep = json(deep);
+        assertThrows(IllegalArgumentException.class, () -> FilterNode.parse(tooDeep));
+    }
+
+    @Test
+    void termKeepsValueOrder() {
+        assertEquals(List.of("b", "a"), FilterNode.term("type", "b", "a").getValues());
+    }
+}
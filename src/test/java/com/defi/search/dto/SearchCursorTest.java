@@ -0,0 +1,41 @@
+package com.defi.search.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchCursorTest {
+
+    @Test
+    void roundTripsEveryField() {
+        SearchCursor cursor = new SearchCursor("pit-1", List.of("1706608800000", "0190a1b2-c3d4"),
+                1706600000000L, 1706700000000L, null);
+
+        assertEquals(cursor, SearchCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void tokenIsUrlSafeWithoutPadding() {
+        SearchCursor cursor = new SearchCursor("??>>", List.of("~~~"), null, null, null);
+
+        assertTrue(cursor.encode().matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void invalidTokensDecodeToNull() {
+        assertNull(SearchCursor.decode("not base64!"));
+        assertNull(SearchCursor.decode(encode("not json")));
+        assertNull(SearchCursor.decode(encode("{\"pitId\": \"pit-1\"}")));
+        assertNull(SearchCursor.decode(""));
+    }
+
+    private static String encode(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,45 @@
+package com.defi.search.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TimelineWatermarkTest {
+
+    @Test
+    void roundTripsCreatedAtAndId() {
+        TimelineWatermark watermark = new TimelineWatermark(1706608800123L, "0190a1b2-c3d4");
+
+        assertEquals(watermark, TimelineWatermark.decode(watermark.encode()));
+    }
+
+    @Test
+    void roundTripsWithoutId() {
+        TimelineWatermark watermark = new TimelineWatermark(1706608800123L, null);
+
+        TimelineWatermark decoded = TimelineWatermark.decode(watermark.encode());
+
+        assertEquals(1706608800123L, decoded.getCreatedAt());
+        assertNull(decoded.getId());
+    }
+
+    @Test
+    void invalidTokenDecodesToNull() {
+        assertNull(TimelineWatermark.decode("not base64!"));
+    }
+
+    @Test
+    void cursorKeepsTimelineTieBreaker() {
+        SearchCursor cursor = new SearchCursor(null, List.of("1706608800123", "0190a1b2-c3d4"),
+                1706608800123L, null, "0190a1b2-c3d4");
+
+        SearchCursor decoded = SearchCursor.decode(cursor.encode());
+
+        assertNull(decoded.getPitId());
+        assertEquals("0190a1b2-c3d4", decoded.getFromId());
+        assertEquals(1706608800123L, decoded.getFromTime());
+    }
+}
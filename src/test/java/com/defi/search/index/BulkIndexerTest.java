@@ -0,0 +1,181 @@
+package com.defi.search.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.ErrorCause;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkIndexerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final StubClient client = new StubClient();
+    private BulkIndexer indexer;
+
+    @AfterEach
+    void close() {
+        if (indexer != null) {
+            indexer.close();
+        }
+    }
+
+    @Test
+    void createdAndConflictCompleteWithTheirOutcome() throws Exception {
+        client.respond(Map.of("new", 201, "dup", 409));
+        indexer = new BulkIndexer(client, config(3));
+
+        CompletableFuture<Boolean> created = indexer.add("events", "new", MAPPER.createObjectNode(), 10);
+        CompletableFuture<Boolean> duplicate = indexer.add("events", "dup", MAPPER.createObjectNode(), 10);
+        indexer.flush();
+
+        assertTrue(created.get(5, TimeUnit.SECONDS));
+        // 409: id đã được index (replay), không phải lỗi
+        assertFalse(duplicate.get(5, TimeUnit.SECONDS));
+        assertEquals(1, client.requests.size());
+    }
+
+    @Test
+    void tooManyRequestsResendsOnlyTheThrottledDocument() throws Exception {
+        client.respond(Map.of("ok", 201, "throttled", 429));
+        client.respond(Map.of("throttled", 201));
+        indexer = new BulkIndexer(client, config(3));
+
+        CompletableFuture<Boolean> ok = indexer.add("events", "ok", MAPPER.createObjectNode(), 10);
+        CompletableFuture<Boolean> throttled = indexer.add("events", "throttled", MAPPER.createObjectNode(), 10);
+        indexer.flush();
+
+        assertTrue(ok.get(5, TimeUnit.SECONDS));
+        assertTrue(throttled.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("ok", "throttled"), List.of("throttled")), client.requestIds());
+    }
+
+    @Test
+    void permanentRejectionFailsWithoutRetry() {
+        client.respond(Map.of("bad", 400));
+        indexer = new BulkIndexer(client, config(3));
+
+        CompletableFuture<Boolean> bad = indexer.add("events", "bad", MAPPER.createObjectNode(), 10);
+        indexer.flush();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DocumentRejectedException.class, e.getCause());
+        assertEquals(1, client.requests.size());
+    }
+
+    @Test
+    void throttledDocumentFailsAfterTheLastAttempt() {
+        client.respond(Map.of("throttled", 429));
+        client.respond(Map.of("throttled", 429));
+        indexer = new BulkIndexer(client, config(1));
+
+        CompletableFuture<Boolean> throttled = indexer.add("events", "throttled", MAPPER.createObjectNode(), 10);
+        indexer.flush();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> throttled.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(2, client.requests.size());
+    }
+
+    @Test
+    void transportFailureRetriesTheWholeBatch() throws Exception {
+        client.fail();
+        client.respond(Map.of("a", 201, "b", 201));
+        indexer = new BulkIndexer(client, config(3));
+
+        CompletableFuture<Boolean> a = indexer.add("events", "a", MAPPER.createObjectNode(), 10);
+        CompletableFuture<Boolean> b = indexer.add("events", "b", MAPPER.createObjectNode(), 10);
+        indexer.flush();
+
+        assertTrue(a.get(5, TimeUnit.SECONDS));
+        assertTrue(b.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("a", "b"), List.of("a", "b")), client.requestIds());
+    }
+
+    /**
+     * maxActions và lingerMs đủ lớn để batch chỉ được gửi khi test gọi flush.
+     */
+    private static ObjectNode config(int maxRetries) {
+        ObjectNode config = MAPPER.createObjectNode();
+        config.put("maxActions", 1000);
+        config.put("lingerMs", 60_000);
+        config.put("maxRetries", maxRetries);
+        config.put("retryBackoffMs", 1);
+        config.put("concurrentRequests", 1);
+        return config;
+    }
+
+    /**
+     * Trả lần lượt các response đã chuẩn bị, status của từng item theo id của document.
+     */
+    private static final class StubClient extends OpenSearchClient {
+        private final Deque<Map<String, Integer>> responses = new ConcurrentLinkedDeque<>();
+        private final List<BulkRequest> requests = new ArrayList<>();
+
+        private StubClient() {
+            super(null);
+        }
+
+        void respond(Map<String, Integer> statuses) {
+            responses.add(statuses);
+        }
+
+        void fail() {
+            responses.add(Map.of());
+        }
+
+        synchronized List<List<String>> requestIds() {
+            return requests.stream()
+                    .map(request -> request.operations().stream().map(op -> op.create().id()).toList())
+                    .toList();
+        }
+
+        @Override
+        public synchronized BulkResponse bulk(BulkRequest request) throws IOException {
+            requests.add(request);
+            Map<String, Integer> statuses = responses.poll();
+            if (statuses == null || statuses.isEmpty()) {
+                throw new IOException("connection reset");
+            }
+            List<BulkResponseItem> items = new ArrayList<>();
+            for (BulkOperation operation : request.operations()) {
+                String id = operation.create().id();
+                int status = statuses.get(id);
+                items.add(BulkResponseItem.of(item -> {
+                    item.operationType(OperationType.Create).index("events").id(id).status(status);
+                    if (status >= 300) {
+                        item.error(ErrorCause.of(error -> error
+                                .type(status == 429 ? "es_rejected_execution_exception" : "mapper_parsing_exception")
+                                .reason("status " + status)));
+                    }
+                    return item;
+                }));
+            }
+            return BulkResponse.of(response -> response
+                    .errors(items.stream().anyMatch(item -> item.error() != null))
+                    .took(1)
+                    .items(items));
+        }
+    }
+}
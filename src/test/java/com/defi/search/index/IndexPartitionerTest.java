@@ -0,0 +1,110 @@
+package com.defi.search.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IndexPartitionerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static IndexPartitioner partitioner(String granularity, int maxQueryPartitions) {
+        ObjectNode config = MAPPER.createObjectNode().put("indexName", "events");
+        config.putObject("partition")
+                .put("granularity", granularity)
+                .put("maxQueryPartitions", maxQueryPartitions);
+        IndexPartitioner partitioner = IndexPartitioner.getInstance();
+        partitioner.init(config);
+        partitioner.setAvailableLegacyIndices(List.of("events"));
+        return partitioner;
+    }
+
+    private static long at(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    @Test
+    void dailyRangeListsEachDayAndLegacyIndex() {
+        IndexPartitioner partitioner = partitioner("daily", 100);
+
+        List<String> indices = partitioner.indicesFor(at("2024-01-30T22:00:00Z"), at("2024-02-01T01:00:00Z"));
+
+        assertEquals(List.of("events-2024.01.30", "events-2024.01.31", "events-2024.02.01", "events"), indices);
+    }
+
+    @Test
+    void rangeEndIsInclusive() {
+        IndexPartitioner partitioner = partitioner("daily", 100);
+
+        List<String> indices = partitioner.indicesFor(at("2024-01-30T10:00:00Z"), at("2024-01-31T00:00:00Z"));
+
+        assertEquals(List.of("events-2024.01.30", "events-2024.01.31", "events"), indices);
+    }
+
+    @Test
+    void hourlyCollapsesFullDaysIntoWildcard() {
+        IndexPartitioner partitioner = partitioner("hourly", 100);
+
+        List<String> indices = partitioner.indicesFor(at("2024-01-30T22:30:00Z"), at("2024-02-01T01:15:00Z"));
+
+        assertEquals(List.of(
+                "events-2024.01.30-22", "events-2024.01.30-23",
+                "events-2024.01.31-*",
+                "events-2024.02.01-00", "events-2024.02.01-01",
+                "events"), indices);
+    }
+
+    @Test
+    void openOrInvertedRangeUsesReadAlias() {
+        IndexPartitioner partitioner = partitioner("daily", 100);
+
+        assertEquals(List.of("events-read"), partitioner.indicesFor(null, at("2024-01-30T00:00:00Z")));
+        assertEquals(List.of("events-read"), partitioner.indicesFor(at("2024-01-30T00:00:00Z"), null));
+        assertEquals(List.of("events-read"),
+                partitioner.indicesFor(at("2024-01-31T00:00:00Z"), at("2024-01-30T00:00:00Z")));
+    }
+
+    @Test
+    void tooManyPartitionsUsesReadAlias() {
+        IndexPartitioner partitioner = partitioner("daily", 3);
+
+        assertEquals(3, partitioner.indicesFor(at("2024-01-01T00:00:00Z"), at("2024-01-03T00:00:00Z")).size() - 1);
+        assertEquals(List.of("events-read"),
+                partitioner.indicesFor(at("2024-01-01T00:00:00Z"), at("2024-01-04T00:00:00Z")));
+    }
+
+    @Test
+    void wildcardIndicesLeaveAliasesAndWildcardsUntouched() {
+        IndexPartitioner partitioner = partitioner("hourly", 100);
+
+        List<String> indices = partitioner.wildcardIndicesFor(at("2024-01-30T23:00:00Z"), at("2024-01-31T23:59:59.999Z"));
+
+        assertEquals(List.of("events-2024.01.30-23*", "events-2024.01.31-*", "events"), indices);
+    }
+
+    @Test
+    void missingLegacyIndexIsLeftOut() {
+        // Bản cài mới: legacy index mặc định chưa từng được tạo, point-in-time không được nhắc tới nó
+        IndexPartitioner partitioner = partitioner("daily", 100);
+        partitioner.setAvailableLegacyIndices(List.of());
+
+        assertEquals(List.of("events-2024.01.30*"),
+                partitioner.wildcardIndicesFor(at("2024-01-30T10:00:00Z"), at("2024-01-30T11:00:00Z")));
+        assertEquals(List.of("events-2024.01.30"),
+                partitioner.indicesFor(at("2024-01-30T10:00:00Z"), at("2024-01-30T11:00:00Z")));
+    }
+
+    @Test
+    void parsesPartitionStartFromName() {
+        IndexPartitioner partitioner = partitioner("hourly", 100);
+
+        assertEquals(at("2024-01-30T07:00:00Z"), partitioner.parsePartitionStart("events-2024.01.30-07"));
+        assertNull(partitioner.parsePartitionStart("events-2024.01.30"));
+        assertNull(partitioner.parsePartitionStart("other-2024.01.30-07"));
+    }
+}
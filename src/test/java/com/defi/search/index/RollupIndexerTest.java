@@ -0,0 +1,151 @@
+package com.defi.search.index;
+
+import com.defi.search.dto.LateEvents;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.defi.search.index.RollupIndexer.HOUR_MILLIS;
+import static com.defi.search.index.RollupIndexer.MINUTE_MILLIS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupIndexerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long T = Instant.parse("2024-01-30T10:00:00Z").toEpochMilli();
+
+    private final List<LateEvents> notified = new ArrayList<>();
+
+    @Test
+    void advanceStopsAtTheSettledWatermark() throws IOException {
+        Recording rollup = rollup(60, 48);
+        long now = T + 5 * MINUTE_MILLIS + 30_000;
+
+        // Watermark trừ settleSeconds (10s) rồi làm tròn xuống phút
+        assertEquals(T + 5 * MINUTE_MILLIS, rollup.advance(T, now, now));
+        assertEquals(List.of("minute+0", "minute+1", "minute+2", "minute+3", "minute+4"), rollup.calls);
+        assertEquals(List.of(T + 5 * MINUTE_MILLIS), rollup.written);
+    }
+
+    @Test
+    void completedHourIsRecomputedWhenTheCursorCrossesIt() throws IOException {
+        Recording rollup = rollup(60, 48);
+        long now = T + 62 * MINUTE_MILLIS + 30_000;
+
+        assertEquals(T + 62 * MINUTE_MILLIS, rollup.advance(T + 58 * MINUTE_MILLIS, now, now));
+        assertEquals(List.of("minute+58", "minute+59", "hour+0", "minute+60", "minute+61"), rollup.calls);
+    }
+
+    @Test
+    void budgetLimitsBucketsPerRunAndThroughContinuesFromThere() throws IOException {
+        Recording rollup = rollup(3, 48);
+        long now = T + 10 * MINUTE_MILLIS + 30_000;
+
+        long through = rollup.advance(T, now, now);
+        assertEquals(T + 3 * MINUTE_MILLIS, through);
+        assertEquals(List.of("minute+0", "minute+1", "minute+2"), rollup.calls);
+
+        rollup.calls.clear();
+        assertEquals(T + 6 * MINUTE_MILLIS, rollup.advance(through, now, now));
+        assertEquals(List.of("minute+3", "minute+4", "minute+5"), rollup.calls);
+        assertEquals(List.of(T + 3 * MINUTE_MILLIS, T + 6 * MINUTE_MILLIS), rollup.written);
+    }
+
+    @Test
+    void hoursPastMinuteRetentionAreOnlyRolledUpByHour() throws IOException {
+        Recording rollup = rollup(100, 1);
+        long now = T + 3 * HOUR_MILLIS + 30_000;
+
+        assertEquals(T + 3 * HOUR_MILLIS, rollup.advance(T, now, now));
+        assertEquals(List.of("hour+0", "hour+60"), rollup.calls.subList(0, 2));
+        assertEquals(60, rollup.calls.stream().filter(call -> call.startsWith("minute")).count());
+        assertEquals("minute+120", rollup.calls.get(2));
+        assertEquals("hour+120", rollup.calls.get(rollup.calls.size() - 1));
+    }
+
+    @Test
+    void unknownWatermarkLeavesThroughUntouched() throws IOException {
+        Recording rollup = rollup(60, 48);
+
+        assertEquals(T, rollup.advance(T, Long.MIN_VALUE, T + HOUR_MILLIS));
+        assertTrue(rollup.calls.isEmpty());
+        assertTrue(rollup.written.isEmpty());
+    }
+
+    @Test
+    void lateMinutesBeforeThroughAreRecomputedWithTheirCompletedHour() {
+        Recording rollup = rollup(60, 48);
+        LateEvents notice = late(T + 5 * MINUTE_MILLIS, T + 61 * MINUTE_MILLIS, T + 70 * MINUTE_MILLIS);
+        rollup.onLateEvents(notice);
+
+        rollup.recomputeLate(T + 62 * MINUTE_MILLIS, T + 63 * MINUTE_MILLIS);
+
+        // +70 chưa có rollup (sau through) nên được tính bình thường; giờ +60 chưa trọn vẹn
+        assertEquals(List.of("minute+5", "hour+0", "minute+61"), rollup.calls);
+        assertEquals(List.of(notice), notified);
+    }
+
+    @Test
+    void failedLateRecomputeIsRetriedBeforeListenersAreNotified() {
+        Recording rollup = rollup(60, 48);
+        LateEvents notice = late(T + 5 * MINUTE_MILLIS);
+        rollup.onLateEvents(notice);
+        rollup.failures = 1;
+
+        rollup.recomputeLate(T + 62 * MINUTE_MILLIS, T + 63 * MINUTE_MILLIS);
+        assertTrue(notified.isEmpty());
+
+        rollup.recomputeLate(T + 62 * MINUTE_MILLIS, T + 63 * MINUTE_MILLIS);
+        assertEquals(List.of(notice), notified);
+        assertEquals(List.of("minute+5", "hour+0"), rollup.calls);
+    }
+
+    private Recording rollup(int maxBucketsPerRun, int minuteRetentionHours) {
+        ObjectNode osConfig = MAPPER.createObjectNode().put("indexName", "events");
+        osConfig.putObject("partition").put("granularity", "daily");
+        IndexPartitioner partitioner = IndexPartitioner.getInstance();
+        partitioner.init(osConfig);
+
+        ObjectNode config = MAPPER.createObjectNode()
+                .put("settleSeconds", 10)
+                .put("maxBucketsPerRun", maxBucketsPerRun)
+                .put("minuteRetentionHours", minuteRetentionHours);
+        return new Recording(partitioner, config, notified);
+    }
+
+    private static LateEvents late(Long... minutes) {
+        return new LateEvents(List.of(minutes), List.of(), false);
+    }
+
+    /**
+     * Ghi lại các bucket được tính lại (granularity+phút tính từ T) và các lần ghi through thay vì gọi OpenSearch.
+     */
+    private static final class Recording extends RollupIndexer {
+        private final List<String> calls = new ArrayList<>();
+        private final List<Long> written = new ArrayList<>();
+        private int failures;
+
+        private Recording(IndexPartitioner partitioner, ObjectNode config, List<LateEvents> notified) {
+            super(null, partitioner, config, 30, List.of(notified::add));
+        }
+
+        @Override
+        void recompute(String granularity, long bucket, long length) throws IOException {
+            if (failures > 0) {
+                failures--;
+                throw new IOException("search failed");
+            }
+            calls.add(granularity + "+" + (bucket - T) / MINUTE_MILLIS);
+        }
+
+        @Override
+        void writeThrough(long through) {
+            written.add(through);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.defi.search.listener;
+
+import com.defi.common.util.log.codec.EventCodec;
+import com.defi.search.index.DocumentRejectedException;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.RStream;
+import org.redisson.api.StreamMessageId;
+import org.redisson.misc.CompletableFutureWrapper;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EventStreamConsumerTest {
+    private static final String FIELD = "data";
+
+    private final BlockingQueue<Map<StreamMessageId, Map<String, byte[]>>> reads = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<StreamMessageId>> acks = new LinkedBlockingQueue<>();
+    /**
+     * Kết quả index theo id của event; id không có trong map được index thành công.
+     */
+    private final Map<String, CompletableFuture<Boolean>> outcomes = new ConcurrentHashMap<>();
+    private EventStreamConsumer consumer;
+    private Thread thread;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        consumer.stop();
+        thread.join(5000);
+    }
+
+    @Test
+    void partialBatchAcksOnlyConfirmedEntries() throws Exception {
+        outcomes.put("transient", CompletableFuture.failedFuture(new IllegalStateException("429")));
+        outcomes.put("rejected", CompletableFuture.failedFuture(new DocumentRejectedException("mapper_parsing")));
+        Map<StreamMessageId, Map<String, byte[]>> batch = new LinkedHashMap<>();
+        batch.put(id(1), entry(event("ok")));
+        batch.put(id(2), entry(event("transient")));
+        batch.put(id(3), entry(event("rejected")));
+        // Payload hỏng: gửi lại cũng không giải mã được nên được ack
+        batch.put(id(4), compressedEntry(new byte[]{1, 2, 3}));
+
+        start(batch);
+
+        assertEquals(List.of(id(1), id(3), id(4)), acks.poll(5, TimeUnit.SECONDS));
+        assertNull(acks.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void compressedEntryIsAckedOnlyWhenEveryEventIsConfirmed() throws Exception {
+        outcomes.put("transient", CompletableFuture.failedFuture(new IllegalStateException("503")));
+        Map<StreamMessageId, Map<String, byte[]>> batch = new LinkedHashMap<>();
+        batch.put(id(1), compressedEntry(EventCodec.compress(List.of(event("a"), event("transient")),
+                Deflater.BEST_SPEED)));
+        batch.put(id(2), compressedEntry(EventCodec.compress(List.of(event("b"), event("c")),
+                Deflater.BEST_SPEED)));
+
+        start(batch);
+
+        assertEquals(List.of(id(2)), acks.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void ackWaitsForTheBulkResponse() throws Exception {
+        CompletableFuture<Boolean> slow = new CompletableFuture<>();
+        outcomes.put("slow", slow);
+        Map<StreamMessageId, Map<String, byte[]>> batch = new LinkedHashMap<>();
+        batch.put(id(1), entry(event("fast")));
+        batch.put(id(2), entry(event("slow")));
+
+        start(batch);
+
+        // Một XACK cho cả batch, gửi khi mọi entry đã có kết quả
+        assertNull(acks.poll(300, TimeUnit.MILLISECONDS));
+        slow.complete(true);
+        assertEquals(List.of(id(1), id(2)), acks.poll(5, TimeUnit.SECONDS));
+    }
+
+    private void start(Map<StreamMessageId, Map<String, byte[]>> batch) {
+        reads.add(batch);
+        consumer = new EventStreamConsumer(stream(), "indexer", "consumer-1", FIELD, 10, 1, 100,
+                60_000, 60_000, this::index);
+        thread = new Thread(consumer, "consumer-test");
+        thread.start();
+    }
+
+    private CompletableFuture<Boolean> index(JsonNode document, byte[] payload) {
+        return outcomes.getOrDefault(document.path("id").asText(), CompletableFuture.completedFuture(true));
+    }
+
+    /**
+     * RStream chỉ hỗ trợ các lệnh consumer dùng: readGroup trả lần lượt các batch đã chuẩn bị,
+     * autoClaim không có gì để nhận, ackAsync ghi lại id được ack.
+     */
+    @SuppressWarnings("unchecked")
+    private RStream<String, byte[]> stream() {
+        return (RStream<String, byte[]>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RStream.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "readGroup" -> {
+                        Map<StreamMessageId, Map<String, byte[]>> batch = reads.poll(10, TimeUnit.MILLISECONDS);
+                        yield batch != null ? batch : Map.of();
+                    }
+                    case "autoClaim" -> new AutoClaimResult<>(new StreamMessageId(0, 0), Map.of(), List.of());
+                    case "ackAsync" -> {
+                        acks.add(new ArrayList<>(List.of((StreamMessageId[]) args[1])));
+                        yield new CompletableFutureWrapper<>((long) ((StreamMessageId[]) args[1]).length);
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static StreamMessageId id(long sequence) {
+        return new StreamMessageId(1_706_608_800_000L, sequence);
+    }
+
+    private static byte[] event(String id) {
+        return ("{\"id\":\"" + id + "\",\"type\":\"LOGIN\",\"createdAt\":1706608800000}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, byte[]> entry(byte[] payload) {
+        return Map.of(FIELD, payload);
+    }
+
+    private static Map<String, byte[]> compressedEntry(byte[] compressed) {
+        return Map.of(FIELD, compressed,
+                EventCodec.COMPRESSION_FIELD, EventCodec.Compression.DEFLATE.headerValue().getBytes(StandardCharsets.UTF_8));
+    }
+}
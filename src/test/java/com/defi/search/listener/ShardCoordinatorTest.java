@@ -0,0 +1,154 @@
+package com.defi.search.listener;
+
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RBucket;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ShardCoordinatorTest {
+    private static final long LEASE_MILLIS = 30_000;
+
+    /**
+     * Trạng thái Redis dùng chung giữa các instance: owner của từng lease và score của từng member.
+     */
+    private final Map<String, String> leases = new ConcurrentHashMap<>();
+    private final Map<String, Double> members = new ConcurrentHashMap<>();
+
+    @Test
+    void singleInstanceClaimsEveryShard() {
+        assertEquals(Set.of(0, 1, 2, 3), coordinator("a", 4).rebalance());
+    }
+
+    @Test
+    void newInstanceGetsItsShareAfterTheOwnerReleasesTheExtra() {
+        ShardCoordinator a = coordinator("a", 4);
+        ShardCoordinator b = coordinator("b", 4);
+        assertEquals(Set.of(0, 1, 2, 3), a.rebalance());
+
+        // b đã là member nhưng mọi shard còn lease của a
+        assertEquals(Set.of(), b.rebalance());
+        // a trả bớt các shard có số lớn nhất
+        assertEquals(Set.of(0, 1), a.rebalance());
+        assertEquals(Set.of(2, 3), b.rebalance());
+        assertEquals("b", leases.get(lease(3)));
+    }
+
+    @Test
+    void leaseTakenByAnotherInstanceIsDropped() {
+        ShardCoordinator a = coordinator("a", 2);
+        assertEquals(Set.of(0, 1), a.rebalance());
+
+        // Lease của a hết hạn và instance khác đã nhận shard 1
+        leases.put(lease(1), "c");
+
+        assertEquals(Set.of(0), a.rebalance());
+        assertEquals("c", leases.get(lease(1)));
+    }
+
+    @Test
+    void expiredLeaseStillFreeIsTakenBackOnRenew() {
+        ShardCoordinator a = coordinator("a", 2);
+        a.rebalance();
+        leases.remove(lease(0));
+
+        assertEquals(Set.of(0, 1), a.rebalance());
+        assertEquals("a", leases.get(lease(0)));
+    }
+
+    @Test
+    void releaseAllLetsAnotherInstanceClaimImmediately() {
+        ShardCoordinator a = coordinator("a", 3);
+        ShardCoordinator b = coordinator("b", 3);
+        a.rebalance();
+
+        a.releaseAll();
+
+        assertFalse(members.containsKey("a"));
+        assertEquals(Set.of(0, 1, 2), b.rebalance());
+    }
+
+    @Test
+    void releaseDoesNotDeleteALeaseOwnedByAnotherInstance() {
+        ShardCoordinator a = coordinator("a", 1);
+        a.rebalance();
+        leases.put(lease(0), "c");
+
+        a.releaseAll();
+
+        assertEquals("c", leases.get(lease(0)));
+    }
+
+    @Test
+    void membersWithoutRecentHeartbeatAreNotCounted() {
+        members.put("dead", (double) (System.currentTimeMillis() - 2 * LEASE_MILLIS));
+
+        assertEquals(Set.of(0, 1, 2, 3), coordinator("a", 4).rebalance());
+        assertNull(members.get("dead"));
+    }
+
+    private ShardCoordinator coordinator(String instanceId, int shardCount) {
+        return new ShardCoordinator(client(), "event-stream", instanceId, shardCount, LEASE_MILLIS);
+    }
+
+    private static String lease(int shard) {
+        return "event-stream:" + shard + ":owner";
+    }
+
+    /**
+     * RedissonClient chỉ hỗ trợ các object ShardCoordinator dùng. Hai script được phân biệt theo số tham số:
+     * renew (instanceId, leaseMillis) và release (instanceId); TTL không được mô phỏng.
+     */
+    private RedissonClient client() {
+        return proxy(RedissonClient.class, (method, args) -> switch (method) {
+            case "getScoredSortedSet" -> proxy(RScoredSortedSet.class, (m, a) -> switch (m) {
+                case "add" -> members.put((String) a[1], (Double) a[0]) == null;
+                case "removeRangeByScore" -> {
+                    int before = members.size();
+                    members.values().removeIf(score -> score < (Double) a[2]);
+                    yield before - members.size();
+                }
+                case "size" -> members.size();
+                case "remove" -> members.remove(a[0]) != null;
+                default -> throw new UnsupportedOperationException(m);
+            });
+            case "getBucket" -> {
+                String name = (String) args[0];
+                yield proxy(RBucket.class, (m, a) -> switch (m) {
+                    case "getName" -> name;
+                    case "setIfAbsent" -> leases.putIfAbsent(name, (String) a[0]) == null;
+                    default -> throw new UnsupportedOperationException(m);
+                });
+            }
+            case "getScript" -> proxy(RScript.class, (m, a) -> {
+                String key = (String) a[0];
+                Object[] values = (Object[]) a[5];
+                String instanceId = (String) values[0];
+                if (values.length == 2) {
+                    return instanceId.equals(leases.computeIfAbsent(key, k -> instanceId));
+                }
+                return leases.remove(key, instanceId);
+            });
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(ShardCoordinatorTest.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(method.getName(), args));
+    }
+}
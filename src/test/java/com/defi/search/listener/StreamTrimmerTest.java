@@ -0,0 +1,122 @@
+package com.defi.search.listener;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.PendingResult;
+import org.redisson.api.RStream;
+import org.redisson.api.StreamGroup;
+import org.redisson.api.StreamMessageId;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamTrimmerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<StreamGroup> groups = new ArrayList<>();
+    private final Map<String, PendingResult> pending = new HashMap<>();
+    private final List<String> trims = new ArrayList<>();
+
+    @Test
+    void lowestPendingIdOfAnyGroupIsTheMinId() {
+        group("indexer", 2, id(9, 0));
+        pending.put("indexer", new PendingResult(2, id(5, 0), id(8, 0), Map.of()));
+        group("audit", 0, id(7, 0));
+
+        StreamTrimmer trimmer = trimmer(config());
+        trimmer.run();
+
+        assertEquals("5-0", trimmer.getStats().getTrimMinId());
+        assertEquals(List.of("trimNonStrict"), trims);
+    }
+
+    @Test
+    void groupsWithoutPendingKeepEverythingAfterTheirLastDeliveredId() {
+        group("indexer", 0, id(9, 0));
+        group("audit", 0, id(7, 3));
+
+        StreamTrimmer trimmer = trimmer(config());
+        trimmer.run();
+
+        assertEquals("7-3", trimmer.getStats().getTrimMinId());
+    }
+
+    @Test
+    void pendingAckedBeforeItIsReadFallsBackToLastDeliveredId() {
+        group("indexer", 1, id(9, 0));
+        pending.put("indexer", new PendingResult(0, null, null, Map.of()));
+
+        StreamTrimmer trimmer = trimmer(config());
+        trimmer.run();
+
+        assertEquals("9-0", trimmer.getStats().getTrimMinId());
+    }
+
+    @Test
+    void streamWithoutGroupsIsNotTrimmed() {
+        StreamTrimmer trimmer = trimmer(config());
+        trimmer.run();
+
+        assertTrue(trims.isEmpty());
+        assertNull(trimmer.getStats().getTrimMinId());
+    }
+
+    @Test
+    void minRetentionKeepsRecentHistoryAlreadyAcked() {
+        long now = System.currentTimeMillis();
+        group("indexer", 0, id(now, 0));
+
+        StreamTrimmer trimmer = trimmer(config().put("minRetentionSeconds", 60).put("approximate", false));
+        trimmer.run();
+        long after = System.currentTimeMillis();
+
+        long minId = Long.parseLong(trimmer.getStats().getTrimMinId().split("-")[0]);
+        assertTrue(minId >= now - 60_000 && minId <= after - 60_000, "minId " + minId);
+        assertEquals(List.of("trim"), trims);
+    }
+
+    private StreamTrimmer trimmer(ObjectNode config) {
+        return new StreamTrimmer(stream(), "indexer", config);
+    }
+
+    private static ObjectNode config() {
+        return MAPPER.createObjectNode();
+    }
+
+    private void group(String name, int pendingCount, StreamMessageId lastDelivered) {
+        groups.add(new StreamGroup(name, 1, pendingCount, lastDelivered, 0, 0));
+    }
+
+    private static StreamMessageId id(long millis, long sequence) {
+        return new StreamMessageId(millis, sequence);
+    }
+
+    /**
+     * RStream chỉ hỗ trợ các lệnh trimmer dùng; lệnh trim được ghi lại theo tên.
+     */
+    @SuppressWarnings("unchecked")
+    private RStream<String, byte[]> stream() {
+        return (RStream<String, byte[]>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RStream.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "isExists" -> true;
+                    case "listGroups" -> groups;
+                    case "getPendingInfo" -> pending.get((String) args[0]);
+                    case "trim", "trimNonStrict" -> {
+                        trims.add(method.getName());
+                        yield 0L;
+                    }
+                    case "getName" -> "event-stream";
+                    case "size", "sizeInMemory" -> 0L;
+                    case "range" -> Map.of();
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,57 @@
+package com.defi.search.service.impl;
+
+import com.defi.search.dto.FilterNode;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchLogImplTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JacksonJsonpMapper JSONP_MAPPER = new JacksonJsonpMapper();
+
+    private static JsonNode compile(FilterNode filter) throws Exception {
+        Query query = SearchLogImpl.compileFilter(filter);
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSONP_MAPPER.jsonProvider().createGenerator(writer)) {
+            query.serialize(generator, JSONP_MAPPER);
+        }
+        return MAPPER.readTree(writer.toString());
+    }
+
+    private static JsonNode json(String text) throws Exception {
+        return MAPPER.readTree(text.replace('\'', '"'));
+    }
+
+    @Test
+    void singleValueCompilesToTerm() throws Exception {
+        assertEquals(json("{'term': {'type': {'value': 'LOGIN'}}}"), compile(FilterNode.term("type", "LOGIN")));
+    }
+
+    @Test
+    void multipleValuesCompileToTerms() throws Exception {
+        assertEquals(json("{'terms': {'subjectId': ['u1', 'u2']}}"), compile(FilterNode.term("subjectId", "u1", "u2")));
+    }
+
+    @Test
+    void booleanNodesCompileToFilterContextClauses() throws Exception {
+        FilterNode filter = FilterNode.and(
+                FilterNode.term("subjectType", "USER"),
+                FilterNode.or(FilterNode.term("type", "LOGIN"), FilterNode.not(FilterNode.term("type", "LOGOUT"))));
+
+        assertEquals(json("""
+                {'bool': {'filter': [
+                  {'term': {'subjectType': {'value': 'USER'}}},
+                  {'bool': {'minimum_should_match': '1', 'should': [
+                    {'term': {'type': {'value': 'LOGIN'}}},
+                    {'bool': {'must_not': [{'term': {'type': {'value': 'LOGOUT'}}}]}}
+                  ]}}
+                ]}}"""), compile(filter));
+    }
+}
@@ -0,0 +1,142 @@
+package com.defi.search.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsAreExactWhileKeysFitInCapacity() {
+        SpaceSaving sketch = new SpaceSaving(10);
+        for (int i = 0; i < 5; i++) {
+            for (int n = 0; n <= i; n++) {
+                sketch.offer("key-" + i, 1);
+            }
+        }
+
+        List<SpaceSaving.Counter> top = sketch.top(10);
+        assertEquals(5, top.size());
+        assertEquals("key-4", top.get(0).getKey());
+        assertEquals(5, top.get(0).getCount());
+        top.forEach(counter -> assertEquals(0, counter.getError()));
+        assertEquals(0, sketch.minCount());
+        assertEquals(15, sketch.getTotal());
+    }
+
+    @Test
+    void countersBoundTrueCountOnSkewedStream() {
+        int capacity = 50;
+        SpaceSaving sketch = new SpaceSaving(capacity);
+        Map<String, Long> truth = feedZipf(sketch, 200_000, 2_000, 1);
+
+        assertBounds(sketch, truth, capacity);
+    }
+
+    @Test
+    void mergeKeepsBounds() {
+        int capacity = 50;
+        SpaceSaving left = new SpaceSaving(capacity);
+        SpaceSaving right = new SpaceSaving(capacity);
+        Map<String, Long> truth = feedZipf(left, 100_000, 2_000, 2);
+        feedZipf(right, 100_000, 2_000, 3).forEach((key, count) -> truth.merge(key, count, Long::sum));
+
+        left.merge(right);
+
+        assertEquals(200_000, left.getTotal());
+        assertBounds(left, truth, capacity);
+    }
+
+    @Test
+    void snapshotsFromSeveralInstancesMergeWithinBounds() {
+        int capacity = 50;
+        SpaceSaving left = new SpaceSaving(capacity);
+        SpaceSaving right = new SpaceSaving(capacity);
+        Map<String, Long> truth = feedZipf(left, 100_000, 2_000, 5);
+        feedZipf(right, 100_000, 2_000, 6).forEach((key, count) -> truth.merge(key, count, Long::sum));
+
+        // Như estimate: gộp các sketch dựng lại từ snapshot vào một sketch rỗng
+        SpaceSaving merged = new SpaceSaving(capacity);
+        merged.merge(SpaceSaving.of(capacity, left.getTotal(), left.top(capacity)));
+        merged.merge(SpaceSaving.of(capacity, right.getTotal(), right.top(capacity)));
+
+        assertEquals(left.minCount(), SpaceSaving.of(capacity, left.getTotal(), left.top(capacity)).minCount());
+        assertEquals(200_000, merged.getTotal());
+        assertBounds(merged, truth, capacity);
+    }
+
+    @Test
+    void topIsSortedByCountDescending() {
+        SpaceSaving sketch = new SpaceSaving(20);
+        feedZipf(sketch, 10_000, 500, 4);
+
+        List<SpaceSaving.Counter> top = sketch.top(10);
+        assertEquals(10, top.size());
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getCount() >= top.get(i).getCount());
+        }
+    }
+
+    /**
+     * Mọi counter thỏa count - error <= true count <= count, key vắng mặt không vượt quá minCount,
+     * và mọi key chiếm hơn total / capacity đều có mặt.
+     */
+    private static void assertBounds(SpaceSaving sketch, Map<String, Long> truth, int capacity) {
+        long total = sketch.getTotal();
+        long minCount = sketch.minCount();
+        assertTrue(minCount <= total / capacity, "minCount " + minCount + " exceeds total / capacity");
+
+        Map<String, SpaceSaving.Counter> counters = new HashMap<>();
+        sketch.top(capacity).forEach(counter -> counters.put(counter.getKey(), counter));
+        assertEquals(capacity, counters.size());
+        truth.forEach((key, count) -> {
+            SpaceSaving.Counter counter = counters.get(key);
+            if (counter == null) {
+                assertTrue(count <= minCount, key + " missing with count " + count + " > minCount " + minCount);
+                return;
+            }
+            assertTrue(counter.getCount() - counter.getError() <= count, key + " lower bound above true count");
+            assertTrue(count <= counter.getCount(), key + " upper bound below true count");
+        });
+        truth.forEach((key, count) -> {
+            if (count > total / capacity) {
+                assertNotNull(counters.get(key), key + " above total / capacity must be tracked");
+            }
+        });
+    }
+
+    private static Map<String, Long> feedZipf(SpaceSaving sketch, int events, int keys, long seed) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int rank = 0; rank < keys; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        Random random = new Random(seed);
+        Map<String, Long> truth = new HashMap<>();
+        for (int i = 0; i < events; i++) {
+            double target = random.nextDouble() * sum;
+            int low = 0;
+            int high = keys - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            String key = "subject-" + low;
+            sketch.offer(key, 1);
+            truth.merge(key, 1L, Long::sum);
+        }
+        return truth;
+    }
+}